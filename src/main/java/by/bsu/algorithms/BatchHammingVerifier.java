@@ -0,0 +1,186 @@
+package by.bsu.algorithms;
+
+import by.bsu.distance.BitSlicedHammingDistance;
+import by.bsu.model.BitSlicedSequences;
+import by.bsu.model.PackedSequences;
+import by.bsu.model.Sample;
+import com.carrotsearch.hppc.IntArrayList;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Verifies candidates of a read with {@link BitSlicedHammingDistance}: candidates are grouped by blocks of 64 sequences
+ * and each block with enough candidates is compared with the read at once, the rest candidates are left
+ * for pairwise verification. In auto mode it is used only for large lists and small thresholds, where it is faster.
+ * Candidates are sequences of combined index of one or several samples, as {@link MultiSignatureMethod} numbers them.
+ * Column-major copy of a sample is built when its block is compared for the first time and is shared by all threads.
+ * Sequences with symbols stored out of 2-bit codes ({@link PackedSequences#otherPositions}) are left for pairwise
+ * verification, as blocks compare codes only. Instance keeps state of one thread.
+ */
+class BatchHammingVerifier {
+
+    /**
+     * Smaller lists are verified pairwise in auto mode
+     */
+    static final int MIN_CANDIDATES = 256;
+    /**
+     * Blocks with fewer candidates are verified pairwise in auto mode, as comparison of a block takes
+     * about as much time as pairwise comparison of 48 pairs, whatever number of lanes is compared
+     */
+    static final int MIN_LANES = 48;
+    /**
+     * Distance of candidate that was not verified by the last call
+     */
+    static final int NOT_VERIFIED = -2;
+
+    private final PackedSequences[] sources;
+    /**
+     * Column-major copies of sources shared by verifiers of all threads, null till the first use
+     */
+    private final BitSlicedSequences[] columns;
+    private final int[] offsets;
+    /**
+     * Global number of the first block of each sample
+     */
+    private final int[] firstBlocks;
+    private final boolean always;
+    private final int threads;
+    private final BitSlicedHammingDistance distance = new BitSlicedHammingDistance();
+    private final long[] lanes;
+    private final int[] touched;
+    private final int[] distances;
+
+    /**
+     * @param columns shared array of the same length as sources, see {@link #columns(int)}
+     * @param always  verify all candidates by blocks, otherwise only large lists and dense blocks are verified
+     * @param threads threads to build column-major copy of a sample
+     */
+    BatchHammingVerifier(PackedSequences[] sources, BitSlicedSequences[] columns, int[] offsets, boolean always,
+                         int threads) {
+        this.sources = sources;
+        this.columns = columns;
+        this.offsets = offsets;
+        this.always = always;
+        this.threads = threads;
+        this.firstBlocks = new int[columns.length + 1];
+        for (int i = 0; i < columns.length; i++) {
+            firstBlocks[i + 1] = firstBlocks[i] + (sources[i].size + BitSlicedSequences.LANES - 1) / BitSlicedSequences.LANES;
+        }
+        this.lanes = new long[firstBlocks[columns.length]];
+        this.touched = new int[lanes.length];
+        this.distances = new int[offsets[columns.length]];
+    }
+
+    /**
+     * Returns sequences that should be compared by blocks, projections if all samples have them,
+     * as {@link by.bsu.distance.HammingDistance#apply(Sample, int, Sample, int, int)} compares them, or null if some
+     * sample is not packed or samples have differences from consensus, which are compared faster pairwise
+     */
+    static PackedSequences[] sources(List<Sample> samples) {
+        boolean projected = true;
+        for (Sample sample : samples) {
+            if (sample.packed == null || sample.diffs != null) {
+                return null;
+            }
+            projected &= sample.projection != null;
+        }
+        PackedSequences[] result = new PackedSequences[samples.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = projected ? samples.get(i).projection : samples.get(i).packed;
+        }
+        return result;
+    }
+
+    /**
+     * Verifies candidates of sequence seq of query in blocks, all candidates should be padded to the same length as query.
+     * Distances are available by {@link #distance(int)} till the next call
+     *
+     * @return the number of verified candidates
+     */
+    int verify(PackedSequences query, int seq, IntArrayList candidates, int k) {
+        int size = candidates.size();
+        int[] buffer = candidates.buffer;
+        for (int c = 0; c < size; c++) {
+            distances[buffer[c]] = NOT_VERIFIED;
+        }
+        if (!always && (size < MIN_CANDIDATES || k > BitSlicedHammingDistance.SMALL_THRESHOLD)
+                || query.otherPositions[seq] != null) {
+            return 0;
+        }
+        int touchedCount = 0;
+        for (int c = 0; c < size; c++) {
+            int candidate = buffer[c];
+            int sample = sample(candidate);
+            if (sources[sample].otherPositions[candidate - offsets[sample]] != null) {
+                continue;
+            }
+            int block = firstBlocks[sample] + (candidate - offsets[sample]) / BitSlicedSequences.LANES;
+            if (lanes[block] == 0) {
+                touched[touchedCount++] = block;
+            }
+            lanes[block] |= 1L << (candidate - offsets[sample]);
+        }
+        int verified = 0;
+        boolean queried = false;
+        for (int t = 0; t < touchedCount; t++) {
+            int block = touched[t];
+            long blockLanes = lanes[block];
+            lanes[block] = 0;
+            int count = Long.bitCount(blockLanes);
+            if (!always && count < MIN_LANES) {
+                continue;
+            }
+            if (!queried) {
+                distance.setQuery(query, seq);
+                queried = true;
+            }
+            int sample = Arrays.binarySearch(firstBlocks, block);
+            //several samples can start from the same block number if some of them are empty
+            sample = sample >= 0 ? lastWithFirstBlock(sample) : -sample - 2;
+            int local = block - firstBlocks[sample];
+            distance.apply(columns(sample), local, blockLanes, k, distances, offsets[sample] + local * BitSlicedSequences.LANES);
+            verified += count;
+        }
+        return verified;
+    }
+
+    /**
+     * Distance of candidate after the last {@link #verify}, -1 if it is greater than k, {@link #NOT_VERIFIED}
+     * if candidate should be verified pairwise
+     */
+    int distance(int candidate) {
+        return distances[candidate];
+    }
+
+    /**
+     * Returns column-major copy of sample, it is built by the first thread that needs it
+     */
+    private BitSlicedSequences columns(int sample) {
+        synchronized (columns) {
+            if (columns[sample] == null) {
+                columns[sample] = BitSlicedSequences.of(sources[sample], threads);
+            }
+            return columns[sample];
+        }
+    }
+
+    private int sample(int candidate) {
+        int i = Arrays.binarySearch(offsets, candidate);
+        return i >= 0 ? lastWithOffset(i) : -i - 2;
+    }
+
+    private int lastWithOffset(int i) {
+        while (i + 1 < columns.length && offsets[i + 1] == offsets[i]) {
+            i++;
+        }
+        return i;
+    }
+
+    private int lastWithFirstBlock(int i) {
+        while (i + 1 < columns.length && firstBlocks[i + 1] == firstBlocks[i]) {
+            i++;
+        }
+        return i;
+    }
+}
@@ -7,7 +7,8 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardOpenOption;
 
-import by.bsu.distance.LevenshteinDistance;
+import by.bsu.distance.HammingDistance;
+import by.bsu.distance.MyersLevenshteinDistance;
 import by.bsu.model.Sample;
 import by.bsu.start.Start;
 
@@ -16,9 +17,48 @@ import by.bsu.start.Start;
  */
 public class BruteForce {
 
+    /**
+     * Compares all pairs of sequences of sample on all threads by tiles, see {@link TiledBruteForce}
+     */
+    public static long runParallel(Sample sample, int k) throws IOException {
+        System.out.println("Start parallel Brute force method for " + sample.name + " k=" + k);
+        return TiledBruteForce.run(sample, sample, "brute", () -> kernel(sample, sample, k));
+    }
+
+    /**
+     * Compares all pairs of sequences of two samples on all threads by tiles, see {@link TiledBruteForce}
+     */
+    public static long runParallel(Sample sample1, Sample sample2, int k) throws IOException {
+        System.out.println("Start parallel Brute force method for " + sample1.name + " " + sample2.name + " k=" + k);
+        return TiledBruteForce.run(sample1, sample2, "brute", () -> kernel(sample1, sample2, k));
+    }
+
+    /**
+     * Hamming distance on packed words is checked first, as it is upper bound of edit distance.
+     * Myers query is built for a row only when some of its pairs fails this check
+     */
+    private static TiledBruteForce.Kernel kernel(Sample sample1, Sample sample2, int k) {
+        MyersLevenshteinDistance distance = new MyersLevenshteinDistance(k);
+        HammingDistance hammingDistance = new HammingDistance();
+        boolean distances = Start.distancesOutput();
+        boolean sameLength = sample1.packed != null && sample2.packed != null
+                && sample1.packed.maxLength == sample2.packed.maxLength;
+        int[] query = {-1};
+        return (i, j) -> {
+            if (sameLength && hammingDistance.apply(sample1.packed, i, sample2.packed, j, k) != -1 && !distances) {
+                return 0;
+            }
+            if (query[0] != i) {
+                distance.setQuery(sample1, i);
+                query[0] = i;
+            }
+            return distance.apply(sample2, j);
+        };
+    }
+
     public static long run(Sample sample1, Sample sample2, int k) throws IOException {
         long result = 0;
-        LevenshteinDistance distance = new LevenshteinDistance(k);
+        MyersLevenshteinDistance distance = new MyersLevenshteinDistance(k);
         StringBuilder str = new StringBuilder();
         Path path = Start.getOutputFilename(sample1, sample2, "brute");
         for (int i = 0; i < sample1.sequences.length; i++) {
@@ -26,8 +66,9 @@ public class BruteForce {
                 Files.write(path, str.toString().getBytes(), StandardOpenOption.APPEND);
                 str = new StringBuilder();
             }
+            distance.setQuery(sample1, i);
             for (int j = 0; j < sample2.sequences.length; j++) {
-                int d = distance.apply(sample1.sequences[i], sample2.sequences[j]);
+                int d = distance.apply(sample2, j);
                 if (d != -1){
                     result++;
                     str.append(numbers.get(i)).append(" ").append(numbers.get(j)).append("\n");
@@ -42,7 +83,7 @@ public class BruteForce {
     public static long run(Sample sample, int k) throws IOException {
         System.out.println("Start Brute force method for "+sample.name+" k="+k);
         long result = 0;
-        LevenshteinDistance distance = new LevenshteinDistance(k);
+        MyersLevenshteinDistance distance = new MyersLevenshteinDistance(k);
         Path path = Start.getOutputFilename(sample, "brute");
         StringBuilder str = new StringBuilder();
         for (int i = 0; i < sample.sequences.length; i++) {
@@ -51,8 +92,9 @@ public class BruteForce {
                 str = new StringBuilder();
                 System.out.print("\r"+i);
             }
+            distance.setQuery(sample, i);
             for (int j = i+1; j < sample.sequences.length; j++) {
-                int d = distance.apply(sample.sequences[i], sample.sequences[j]);
+                int d = distance.apply(sample, j);
                 if (d != -1){
                     result++;
                     str.append(numbers.get(i)).append(" ").append(numbers.get(j)).append("\n");
@@ -17,6 +17,29 @@ import by.bsu.distance.HammingDistance;
  */
 public class BruteForceHamming {
 
+    /**
+     * Compares all pairs of sequences of sample on all threads by tiles, see {@link TiledBruteForce}.
+     * Sample should be packed
+     */
+    public static long runParallel(Sample sample, int k) throws IOException {
+        System.out.println("Start parallel Brute Hamming force method for " + sample.name + " k=" + k);
+        return TiledBruteForce.run(sample, sample, "brute-hamming", () -> kernel(sample, sample, k));
+    }
+
+    /**
+     * Compares all pairs of sequences of two samples on all threads by tiles, see {@link TiledBruteForce}.
+     * Samples should be packed to the same length
+     */
+    public static long runParallel(Sample sample1, Sample sample2, int k) throws IOException {
+        System.out.println("Start parallel Brute Hamming force method for " + sample1.name + " " + sample2.name + " k=" + k);
+        return TiledBruteForce.run(sample1, sample2, "brute-hamming", () -> kernel(sample1, sample2, k));
+    }
+
+    private static TiledBruteForce.Kernel kernel(Sample sample1, Sample sample2, int k) {
+        HammingDistance distance = new HammingDistance();
+        return (i, j) -> distance.apply(sample1.packed, i, sample2.packed, j, k);
+    }
+
     public static long run(Sample sample1, Sample sample2, int k) throws IOException {
         System.out.println("Start Brute Hamming force method for "+sample1.name+" "+sample2.name+" k="+k);
         long result = 0;
@@ -31,8 +54,8 @@ public class BruteForceHamming {
                 System.out.print("\r" + iter);
             }
             for (int j = 0; j < sample2.sequences.length; j++) {
-                int d = distance.apply(sample1.sequences[i], sample2.sequences[j]);
-                if (d <= k){
+                int d = distance.apply(sample1, i, sample2, j, k);
+                if (d != -1){
                     result++;
                     str.append(numbers.get(i)).append(" ").append(numbers.get(j)).append("\n");
                 }
@@ -56,8 +79,8 @@ public class BruteForceHamming {
                 System.out.print("\r"+i);
             }
             for (int j = i+1; j < sample.sequences.length; j++) {
-                int d = distance.apply(sample.sequences[i], sample.sequences[j]);
-                if (d <= k){
+                int d = distance.apply(sample, i, sample, j, k);
+                if (d != -1){
                     result++;
                     str.append(numbers.get(i)).append(" ").append(numbers.get(j)).append("\n");
                 }
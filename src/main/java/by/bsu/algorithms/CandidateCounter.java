@@ -0,0 +1,147 @@
+package by.bsu.algorithms;
+
+import by.bsu.model.AbstractKMerDict;
+import by.bsu.model.InvertedIndex;
+import by.bsu.model.KMerDict;
+import by.bsu.model.KMerDictChunks;
+import by.bsu.model.PostingList;
+import com.carrotsearch.hppc.IntArrayList;
+
+/**
+ * Reusable scratch of one thread for counting equal chunks of candidate sequences.
+ * Hits array is allocated once for the whole run and only counters touched by the current read are cleared,
+ * candidates are kept in primitive buffers, so nothing is allocated per read.
+ */
+class CandidateCounter {
+
+    /**
+     * hits[s] is the number of chunks of current read that are equal to chunks of sequence s
+     */
+    private final int[] hits;
+    /**
+     * Sequences with non zero hits
+     */
+    private final int[] touched;
+    private int touchedCount;
+    /**
+     * Sequences that still can reach necessary amount of hits
+     */
+    private final int[] candidates;
+    private int candidatesCount;
+    /**
+     * Sequences that have enough equal chunks with the current read, filled by {@link #count}
+     */
+    final IntArrayList toCompare = new IntArrayList();
+
+    CandidateCounter(int n) {
+        hits = new int[n];
+        touched = new int[n];
+        candidates = new int[n];
+    }
+
+    /**
+     * Finds sequences of dict2 with at least chunksCount - k chunks equal to chunks of read seq from dict1.
+     * Chunks are taken in the given order (rarest first): the first ones fill hits, after that a sequence
+     * can't reach the threshold without being in one of them, so the rest only filter found candidates
+     *
+     * @param from only sequences greater than from are counted, -1 to count all
+     * @param chunks     positions of chunks that exist in dict2 sorted by the number of sequences with them,
+     *                   see {@link AbstractKMerDict#sortChunks}
+     * @param chunksSize the number of positions in chunks
+     */
+    void count(KMerDictChunks dict1, KMerDictChunks dict2, int seq, int from, int k, short[] chunks, int chunksSize) {
+        int need = dict1.chunksCount - k;
+        int fill = startCount(need, chunksSize);
+        for (int i = 0; i < chunksSize; i++) {
+            int position = chunks[i];
+            PostingList sequences = dict2.chunksHashToSequences[position].get(dict1.sequenceChunksHashesList[seq][position]);
+            if (i <= fill) {
+                touchedCount = sequences.increment(hits, from, touched, touchedCount);
+                if (i == fill) {
+                    endFill(need, chunksSize);
+                }
+            } else {
+                int last = 0;
+                for (int c = 0; c < candidatesCount; c++) {
+                    last = keep(candidates[c], sequences.contains(candidates[c]), need, chunksSize - i, last);
+                }
+                candidatesCount = last;
+            }
+        }
+    }
+
+    /**
+     * The same as {@link #count(KMerDictChunks, KMerDictChunks, int, int, int, short[], int)} for l-mers dictionaries
+     */
+    void count(KMerDict dict1, KMerDict dict2, int seq, int from, int k, short[] chunks, int chunksSize) {
+        int need = dict1.chunksCount - k;
+        int fill = startCount(need, chunksSize);
+        InvertedIndex index = dict2.hashToSequencesIndex;
+        for (int i = 0; i < chunksSize; i++) {
+            int position = index.find(dict1.sequenceChunksHashesList[seq][chunks[i]]);
+            if (i <= fill) {
+                touchedCount = index.increment(position, hits, from, touched, touchedCount);
+                if (i == fill) {
+                    endFill(need, chunksSize);
+                }
+            } else {
+                int last = 0;
+                for (int c = 0; c < candidatesCount; c++) {
+                    last = keep(candidates[c], index.contains(position, candidates[c]), need, chunksSize - i, last);
+                }
+                candidatesCount = last;
+            }
+        }
+    }
+
+    /**
+     * Clears counters of the previous read and returns the last position of fill phase
+     */
+    private int startCount(int need, int chunks) {
+        for (int t = 0; t < touchedCount; t++) {
+            hits[touched[t]] = 0;
+        }
+        touchedCount = 0;
+        candidatesCount = 0;
+        toCompare.clear();
+        return Math.min(chunks - need, chunks - 1);
+    }
+
+    /**
+     * Takes all counted sequences as candidates. If there are no chunks left to filter them,
+     * candidates with enough hits go straight to toCompare
+     */
+    private void endFill(int need, int chunks) {
+        System.arraycopy(touched, 0, candidates, 0, touchedCount);
+        candidatesCount = touchedCount;
+        if (chunks - need >= chunks - 1) {
+            for (int c = 0; c < candidatesCount; c++) {
+                if (hits[candidates[c]] >= need) {
+                    toCompare.add(candidates[c]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Filter step for one candidate: it is dropped if it can't get necessary amount of hits with the rest chunks,
+     * moved to toCompare if it already has it and kept in candidates otherwise
+     *
+     * @param last the number of kept candidates
+     * @return the number of kept candidates after this one
+     */
+    private int keep(int candidate, boolean isInDict, int need, int chunksLeft, int last) {
+        // keep if sequence has chunk for current position or if it still can get enough equal chunks
+        if (isInDict || need <= hits[candidate] + chunksLeft) {
+            if (isInDict) {
+                hits[candidate]++;
+            }
+            if (hits[candidate] >= need) {
+                toCompare.add(candidate);
+            } else {
+                candidates[last++] = candidate;
+            }
+        }
+        return last;
+    }
+}
@@ -0,0 +1,333 @@
+package by.bsu.algorithms;
+
+import by.bsu.distance.HammingDistance;
+import by.bsu.distance.MyersLevenshteinDistance;
+import by.bsu.model.PackedSequences;
+import by.bsu.model.Sample;
+import by.bsu.start.Start;
+import by.bsu.util.AlgorithmUtils;
+import by.bsu.util.Utils;
+import by.bsu.util.output.EdgeBuffer;
+import by.bsu.util.output.EdgeWriter;
+import by.bsu.util.tasks.ReadRanges;
+import com.carrotsearch.hppc.BitMixer;
+import com.carrotsearch.hppc.LongIntHashMap;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Approximate search of related pairs by locality-sensitive hashing, for thresholds where signature method
+ * has almost no filtering (chunksCount - k is small or not positive).
+ * <p>
+ * Each read gets a key in each of bands, a key is built from rows values: symbols on random positions for Hamming
+ * distance (bit sampling) or minimums of random hash functions over l-mers of the read for edit distance (MinHash).
+ * Reads with the same key in some band are candidates and every candidate pair is verified exactly, so all reported
+ * pairs are related, but some related pairs can be missed. More bands give better recall, more rows give fewer
+ * candidates. Recall is estimated on random reads that are compared with all reads exactly.
+ * <p>
+ * Positions for Hamming distance are taken only from polymorphic ones, as positions where all reads are equal
+ * put all reads to the same bucket.
+ */
+public class LshMethod {
+
+    private static final long SEED = 42;
+
+    private final Sample sample;
+    private final int k;
+    private final boolean edit;
+    private final int bands;
+    private final int n;
+    /**
+     * Bucket of read i in band b is bucketOf[b][i], reads of bucket are members[b][starts[b][bucket]..starts[b][bucket + 1])
+     * in increasing order and rank[b][i] is position of read i there
+     */
+    private final int[][] bucketOf;
+    private final int[][] starts;
+    private final int[][] members;
+    private final int[][] rank;
+
+    private LshMethod(Sample sample, int k, boolean edit, int bands) {
+        this.sample = sample;
+        this.k = k;
+        this.edit = edit;
+        this.bands = bands;
+        this.n = sample.sequences.length;
+        this.bucketOf = new int[bands][];
+        this.starts = new int[bands][];
+        this.members = new int[bands][];
+        this.rank = new int[bands][];
+    }
+
+    /**
+     * Finds pairs of sequences of sample with Hamming distance (sequences should be packed) or edit distance
+     * not greater than k among LSH candidates and writes them to "lsh-hamming" or "lsh" output
+     *
+     * @param l            l-mer length for MinHash, not used for Hamming distance
+     * @param recallSample the number of random reads to estimate recall on, 0 to skip estimation
+     * @return the number of found pairs
+     */
+    public static long run(Sample sample, int k, boolean edit, int bands, int rows, int l, int recallSample) throws IOException {
+        System.out.println("Start LSH method for " + sample.name + " k=" + k + " bands=" + bands + " rows=" + rows
+                + (edit ? " l=" + l : ""));
+        System.out.println("Input size = " + sample.sequences.length);
+        int threads = Start.threadsCount();
+        long start = System.currentTimeMillis();
+        LshMethod method = new LshMethod(sample, k, edit, bands);
+        long[][] keys = edit ? minHashKeys(sample, bands, rows, l, threads) : samplingKeys(sample, bands, rows, threads);
+        for (int b = 0; b < bands; b++) {
+            method.buckets(b, keys[b]);
+        }
+        System.out.println("Keys and buckets time " + (System.currentTimeMillis() - start) + " ms");
+        long found = method.search(threads);
+        if (recallSample > 0) {
+            method.estimateRecall(Math.min(recallSample, method.n), threads);
+        }
+        return found;
+    }
+
+    /**
+     * Bit sampling: key of band is the symbols of the read on rows random polymorphic positions
+     */
+    private static long[][] samplingKeys(Sample sample, int bands, int rows, int threads) {
+        PackedSequences packed = sample.packed;
+        int[] columns = PackedSequences.polymorphicColumns(packed);
+        System.out.println("Polymorphic positions = " + columns.length + " of " + packed.maxLength);
+        Random random = new Random(SEED);
+        int[][] positions = new int[bands][rows];
+        for (int b = 0; b < bands; b++) {
+            //partial shuffle takes distinct positions while there are enough of them
+            int[] shuffled = columns.clone();
+            for (int r = 0; r < rows && shuffled.length > 0; r++) {
+                if (r >= shuffled.length) {
+                    positions[b][r] = shuffled[random.nextInt(shuffled.length)];
+                    continue;
+                }
+                int swap = r + random.nextInt(shuffled.length - r);
+                int tmp = shuffled[r];
+                shuffled[r] = shuffled[swap];
+                shuffled[swap] = tmp;
+                positions[b][r] = shuffled[r];
+            }
+        }
+        long[][] keys = new long[bands][packed.size];
+        int shards = Math.max(1, Math.min(threads, packed.size));
+        AlgorithmUtils.runShards(threads, shards, shard -> {
+            int to = AlgorithmUtils.shardStart(shard + 1, shards, packed.size);
+            for (int i = AlgorithmUtils.shardStart(shard, shards, packed.size); i < to; i++) {
+                for (int b = 0; b < bands; b++) {
+                    long key = 0;
+                    for (int r = 0; r < rows && columns.length > 0; r++) {
+                        key = key * 31 + packed.symbol(i, positions[b][r]);
+                    }
+                    keys[b][i] = BitMixer.mix64(key);
+                }
+            }
+        });
+        return keys;
+    }
+
+    /**
+     * MinHash: key of band is combined minimums of rows hash functions over l-mers of the read,
+     * l-mers with symbols other than A, C, G, T are skipped
+     */
+    private static long[][] minHashKeys(Sample sample, int bands, int rows, int l, int threads) {
+        int functions = bands * rows;
+        long[] seeds = new long[functions];
+        Random random = new Random(SEED);
+        for (int t = 0; t < functions; t++) {
+            seeds[t] = random.nextLong();
+        }
+        long lmerMask = l >= 32 ? -1L : (1L << (2 * l)) - 1;
+        int size = sample.sequences.length;
+        long[][] keys = new long[bands][size];
+        int shards = Math.max(1, Math.min(threads, size));
+        AlgorithmUtils.runShards(threads, shards, shard -> {
+            long[] mins = new long[functions];
+            int to = AlgorithmUtils.shardStart(shard + 1, shards, size);
+            for (int i = AlgorithmUtils.shardStart(shard, shards, size); i < to; i++) {
+                Arrays.fill(mins, Long.MAX_VALUE);
+                int length = sample.packed != null ? sample.packed.lengths[i] : sample.sequences[i].length();
+                long lmer = 0;
+                int valid = 0;
+                for (int pos = 0; pos < length; pos++) {
+                    int digit = sample.packed != null ? sample.packed.digit(i, pos)
+                            : Utils.convertLetterToDigit(sample.sequences[i].charAt(pos));
+                    if (digit == -1) {
+                        valid = 0;
+                        continue;
+                    }
+                    lmer = (lmer << 2 | digit) & lmerMask;
+                    if (++valid < l) {
+                        continue;
+                    }
+                    for (int t = 0; t < functions; t++) {
+                        long value = BitMixer.mix64(lmer ^ seeds[t]);
+                        if (value < mins[t]) {
+                            mins[t] = value;
+                        }
+                    }
+                }
+                for (int b = 0; b < bands; b++) {
+                    long key = 0;
+                    for (int r = 0; r < rows; r++) {
+                        key = BitMixer.mix64(key ^ mins[b * rows + r]);
+                    }
+                    keys[b][i] = key;
+                }
+            }
+        });
+        return keys;
+    }
+
+    /**
+     * Groups reads by keys of band b, reads of each bucket are sorted as they are added in increasing order
+     */
+    private void buckets(int b, long[] keys) {
+        LongIntHashMap ids = new LongIntHashMap();
+        int[] bucket = new int[n];
+        for (int i = 0; i < n; i++) {
+            int id = ids.getOrDefault(keys[i], -1);
+            if (id == -1) {
+                id = ids.size();
+                ids.put(keys[i], id);
+            }
+            bucket[i] = id;
+        }
+        int[] bucketStarts = new int[ids.size() + 1];
+        for (int i = 0; i < n; i++) {
+            bucketStarts[bucket[i] + 1]++;
+        }
+        for (int id = 0; id < ids.size(); id++) {
+            bucketStarts[id + 1] += bucketStarts[id];
+        }
+        int[] filled = bucketStarts.clone();
+        int[] bucketMembers = new int[n];
+        int[] ranks = new int[n];
+        for (int i = 0; i < n; i++) {
+            ranks[i] = filled[bucket[i]]++;
+            bucketMembers[ranks[i]] = i;
+        }
+        bucketOf[b] = bucket;
+        starts[b] = bucketStarts;
+        members[b] = bucketMembers;
+        rank[b] = ranks;
+    }
+
+    /**
+     * Verifies candidates of all reads, each pair once, and writes related pairs
+     */
+    private long search(int threads) throws IOException {
+        EdgeWriter writer = Start.getOutputWriter(sample, edit ? "lsh" : "lsh-hamming");
+        System.out.println("Running threads = " + threads);
+        //candidates of read are reads after it in its buckets
+        ReadRanges ranges = ReadRanges.split(n, threads, i -> {
+            long work = 0;
+            for (int b = 0; b < bands; b++) {
+                work += starts[b][bucketOf[b][i] + 1] - rank[b][i] - 1;
+            }
+            return work;
+        });
+        AtomicLong comparisons = new AtomicLong();
+        AtomicLong found = new AtomicLong();
+        AlgorithmUtils.runShards(threads, threads, shard -> {
+            Verifier verifier = new Verifier();
+            EdgeBuffer out = writer.newBuffer();
+            int[] seen = new int[n];
+            long compared = 0;
+            long related = 0;
+            int r;
+            while ((r = ranges.next()) != -1) {
+                for (int i = ranges.start(r); i < ranges.end(r); i++) {
+                    for (int b = 0; b < bands; b++) {
+                        int end = starts[b][bucketOf[b][i] + 1];
+                        for (int p = rank[b][i] + 1; p < end; p++) {
+                            int j = members[b][p];
+                            //marks are shifted by one, so zero means not seen
+                            if (seen[j] == i + 1) {
+                                continue;
+                            }
+                            seen[j] = i + 1;
+                            compared++;
+                            int d = verifier.apply(i, j);
+                            if (d != -1) {
+                                related++;
+                                out.add(i, j, d);
+                            }
+                        }
+                    }
+                }
+                writer.write(out);
+            }
+            comparisons.addAndGet(compared);
+            found.addAndGet(related);
+        });
+        writer.close();
+        System.out.println("comparisons = " + comparisons.get());
+        System.out.println("related pairs found = " + found.get());
+        System.out.println("Output is available at " + writer.path.toAbsolutePath().toString());
+        return found.get();
+    }
+
+    /**
+     * Compares random reads with all reads exactly and counts how many of their related pairs share a bucket
+     */
+    private void estimateRecall(int reads, int threads) {
+        Random random = new Random(SEED);
+        int[] sampled = random.ints(0, n).distinct().limit(reads).toArray();
+        AtomicLong related = new AtomicLong();
+        AtomicLong found = new AtomicLong();
+        int shards = Math.max(1, Math.min(threads, sampled.length));
+        AlgorithmUtils.runShards(threads, shards, shard -> {
+            Verifier verifier = new Verifier();
+            int to = AlgorithmUtils.shardStart(shard + 1, shards, sampled.length);
+            for (int s = AlgorithmUtils.shardStart(shard, shards, sampled.length); s < to; s++) {
+                int i = sampled[s];
+                for (int j = 0; j < n; j++) {
+                    if (j == i || verifier.apply(i, j) == -1) {
+                        continue;
+                    }
+                    related.incrementAndGet();
+                    for (int b = 0; b < bands; b++) {
+                        if (bucketOf[b][i] == bucketOf[b][j]) {
+                            found.incrementAndGet();
+                            break;
+                        }
+                    }
+                }
+            }
+        });
+        if (related.get() == 0) {
+            System.out.println("Estimated recall: no related pairs of " + sampled.length + " random reads");
+        } else {
+            System.out.printf("Estimated recall = %.4f (%d of %d related pairs of %d random reads)%n",
+                    (double) found.get() / related.get(), found.get(), related.get(), sampled.length);
+        }
+    }
+
+    /**
+     * Exact distance of one thread, edit distance checks Hamming distance on packed words first, as brute force does
+     */
+    private class Verifier {
+        private final HammingDistance hammingDistance = new HammingDistance();
+        private final MyersLevenshteinDistance distance = edit ? new MyersLevenshteinDistance(k) : null;
+        private final boolean distances = Start.distancesOutput();
+        private int query = -1;
+
+        int apply(int i, int j) {
+            if (!edit) {
+                return hammingDistance.apply(sample, i, sample, j, k);
+            }
+            if (sample.packed != null && hammingDistance.apply(sample.packed, i, sample.packed, j, k) != -1 && !distances) {
+                return 0;
+            }
+            if (query != i) {
+                distance.setQuery(sample, i);
+                query = i;
+            }
+            return distance.apply(sample, j);
+        }
+    }
+}
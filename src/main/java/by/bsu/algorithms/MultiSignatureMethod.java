@@ -0,0 +1,424 @@
+package by.bsu.algorithms;
+
+import by.bsu.distance.HammingDistance;
+import by.bsu.distance.MyersLevenshteinDistance;
+import by.bsu.model.AbstractKMerDict;
+import by.bsu.model.BitSlicedSequences;
+import by.bsu.model.KMerDict;
+import by.bsu.model.KMerDictChunks;
+import by.bsu.model.PackedSequences;
+import by.bsu.model.Sample;
+import by.bsu.start.Start;
+import by.bsu.util.AlgorithmUtils;
+import by.bsu.util.output.EdgeBuffer;
+import by.bsu.util.output.EdgeWriter;
+import by.bsu.util.tasks.ReadRanges;
+import com.carrotsearch.hppc.IntArrayList;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Signature method for all pairs of samples at once. Dictionaries of samples are combined into one index,
+ * where sequence seq of sample s is sequence offsets[s] + seq, so each posting is (sample, sequence) pair
+ * and postings are sorted by sample. Each read of sample s is probed once against all samples after s
+ * and found pairs are written to the output of their pair of samples, the same as pairwise runs do.
+ * So work depends on the number of reads and real candidates, not on the number of pairs of samples.
+ * <p>
+ * In query mode combined index is built for reference samples only and reads of query samples are probed
+ * against all of them, so pairs of reference samples are never compared.
+ */
+public class MultiSignatureMethod {
+
+    public static boolean DEBUG = false;
+    /**
+     * Size of thread buffer of one pair of samples after which it is handed to writer
+     */
+    private static final int FLUSH_BYTES = 1 << 16;
+
+    /**
+     * Samples in combined index
+     */
+    private final List<Sample> samples;
+    private final AbstractKMerDict[] dicts;
+    /**
+     * Dictionaries of samples which reads are probed, dicts themselves or dictionaries of query samples
+     */
+    private final AbstractKMerDict[] probeDicts;
+    private final AbstractKMerDict multiDict;
+    private final int[] offsets;
+    private final int k;
+    private final boolean edit;
+    private final String algName;
+    private final boolean binary = Start.binaryOutput();
+    private final boolean distances = Start.distancesOutput();
+
+    /**
+     * Sample which reads are probed now, its reads are split by ranges between workers.
+     * Only sequences of samples from firstOther are counted
+     */
+    private Sample current;
+    private AbstractKMerDict currentDict;
+    private int firstOther;
+    /**
+     * If sequences of current sample and given one are padded to the same length, so Hamming distance can be
+     * used as an upper bound of edit distance
+     */
+    private boolean[] sameLength;
+    /**
+     * Length sequences of each sample are padded to, see {@link #paddedLength(Sample)}
+     */
+    private int[] paddedLengths;
+    private ReadRanges ranges;
+    private EdgeWriter[] writers;
+    /**
+     * Sequences of samples for Hamming verification by blocks and their column-major copies, which are built
+     * on the first use, null if it is off
+     */
+    private PackedSequences[] sources;
+    private BitSlicedSequences[] columns;
+    private boolean projected;
+
+    private MultiSignatureMethod(List<Sample> samples, AbstractKMerDict[] dicts, AbstractKMerDict[] probeDicts,
+                                 AbstractKMerDict multiDict, int[] offsets, int k, boolean edit) {
+        this.samples = samples;
+        this.dicts = dicts;
+        this.probeDicts = probeDicts;
+        this.multiDict = multiDict;
+        this.offsets = offsets;
+        this.k = k;
+        this.edit = edit;
+        this.algName = edit ? "signature" : "signature-hamming";
+    }
+
+    /**
+     * Returns offsets of samples in combined numbering of sequences, the last value is the total number of sequences
+     */
+    public static int[] offsets(List<Sample> samples) {
+        int[] offsets = new int[samples.size() + 1];
+        for (int s = 0; s < samples.size(); s++) {
+            offsets[s + 1] = offsets[s] + samples.get(s).sequences.length;
+        }
+        return offsets;
+    }
+
+    /**
+     * Finds pairs of sequences from different samples with edit distance not greater than k
+     *
+     * @param multiDict combined dictionary, see {@link by.bsu.util.builders.KMerDictBuilder#getMultiDict}
+     */
+    public static long run(List<Sample> samples, KMerDict[] dicts, KMerDict multiDict, int[] offsets, int k)
+            throws IOException, InterruptedException, ExecutionException {
+        return new MultiSignatureMethod(samples, dicts, dicts, multiDict, offsets, k, true).run();
+    }
+
+    /**
+     * Finds pairs of sequences from different samples with Hamming distance not greater than k
+     *
+     * @param multiDict combined dictionary, see {@link by.bsu.util.builders.KMerDictChunksBuilder#getMultiDict}
+     */
+    public static long run(List<Sample> samples, KMerDictChunks[] dicts, KMerDictChunks multiDict, int[] offsets, int k)
+            throws IOException, InterruptedException, ExecutionException {
+        return new MultiSignatureMethod(samples, dicts, dicts, multiDict, offsets, k, false).run();
+    }
+
+    /**
+     * Finds pairs of query and reference sequences with edit distance not greater than k.
+     * Query dictionaries should be built with the same l as reference ones
+     *
+     * @param multiDict combined dictionary of references, see {@link by.bsu.util.builders.KMerDictBuilder#getMultiDict}
+     * @param offsets   offsets of references, see {@link #offsets(List)}
+     */
+    public static long runQuery(List<Sample> queries, KMerDict[] queryDicts, List<Sample> references, KMerDict[] dicts,
+                                KMerDict multiDict, int[] offsets, int k)
+            throws IOException, InterruptedException, ExecutionException {
+        return new MultiSignatureMethod(references, dicts, queryDicts, multiDict, offsets, k, true).runQuery(queries);
+    }
+
+    /**
+     * Finds pairs of query and reference sequences with Hamming distance not greater than k.
+     * Query dictionaries should be built with the same chunks as reference ones and all sequences should have the same length
+     *
+     * @param multiDict combined dictionary of references, see {@link by.bsu.util.builders.KMerDictChunksBuilder#getMultiDict}
+     * @param offsets   offsets of references, see {@link #offsets(List)}
+     */
+    public static long runQuery(List<Sample> queries, KMerDictChunks[] queryDicts, List<Sample> references,
+                                KMerDictChunks[] dicts, KMerDictChunks multiDict, int[] offsets, int k)
+            throws IOException, InterruptedException, ExecutionException {
+        return new MultiSignatureMethod(references, dicts, queryDicts, multiDict, offsets, k, false).runQuery(queries);
+    }
+
+    private long run() throws IOException, InterruptedException, ExecutionException {
+        int cores = Start.threadsCount();
+        List<Worker> workers = workers(cores);
+        boolean[] hasPartners = screenPairs(cores, false);
+        ExecutorService service = Executors.newFixedThreadPool(cores);
+        long[] total = new long[3];
+        try {
+            //the last sample has no samples after it
+            for (int s = 0; s < samples.size() - 1; s++) {
+                if (hasPartners[s]) {
+                    probe(service, workers, samples.get(s), dicts[s], s + 1, total);
+                }
+            }
+        } finally {
+            service.shutdown();
+        }
+        return report(total);
+    }
+
+    private long runQuery(List<Sample> queries) throws IOException, InterruptedException, ExecutionException {
+        int cores = Start.threadsCount();
+        List<Worker> workers = workers(cores);
+        boolean[] hasPartners = screenPairs(cores, true);
+        ExecutorService service = Executors.newFixedThreadPool(cores);
+        long[] total = new long[3];
+        try {
+            for (int q = 0; q < queries.size(); q++) {
+                if (hasPartners[q]) {
+                    probe(service, workers, queries.get(q), probeDicts[q], 0, total);
+                }
+            }
+        } finally {
+            service.shutdown();
+        }
+        return report(total);
+    }
+
+    private List<Worker> workers(int cores) {
+        paddedLengths = samples.stream().mapToInt(MultiSignatureMethod::paddedLength).toArray();
+        String bitSliced = Start.bitSlicedMode();
+        if (!edit && !bitSliced.equals("false")) {
+            sources = BatchHammingVerifier.sources(samples);
+            if (sources != null) {
+                columns = new BitSlicedSequences[sources.length];
+                projected = sources.length > 0 && sources[0] == samples.get(0).projection;
+            }
+        }
+        List<Worker> workers = new ArrayList<>();
+        for (int i = 0; i < cores; i++) {
+            workers.add(new Worker());
+        }
+        return workers;
+    }
+
+    /**
+     * Probes all reads of given sample against samples of combined index from firstOther and writes found pairs
+     *
+     * @param total found pairs, comparisons and comparisons by blocks, all are increased
+     */
+    private void probe(ExecutorService service, List<Worker> workers, Sample sample, AbstractKMerDict dict,
+                       int firstOther, long[] total) throws IOException, InterruptedException, ExecutionException {
+        current = sample;
+        currentDict = dict;
+        this.firstOther = firstOther;
+        writers = new EdgeWriter[samples.size()];
+        sameLength = new boolean[samples.size()];
+        int length = paddedLength(sample);
+        for (int other = firstOther; other < samples.size(); other++) {
+            sameLength[other] = length == paddedLengths[other];
+        }
+        ranges = ReadRanges.split(sample.sequences.length, Start.threadsCount(), seq -> 1);
+        long[] found = new long[samples.size() + 2];
+        List<Future<long[]>> futures = service.invokeAll(workers);
+        for (Future<long[]> future : futures) {
+            long[] f = future.get();
+            for (int i = firstOther; i < found.length; i++) {
+                found[i] += f[i];
+            }
+        }
+        total[1] += found[samples.size()];
+        total[2] += found[samples.size() + 1];
+        for (int other = firstOther; other < samples.size(); other++) {
+            if (writers[other] != null) {
+                writers[other].close();
+            }
+            if (found[other] > 0) {
+                System.out.printf("Found %s %s. Length = %d\n", sample.name, samples.get(other).name, found[other]);
+                total[0] += found[other];
+            }
+        }
+    }
+
+    /**
+     * Returns length of the longest sequence, as they are padded to it for Hamming distance, -1 for empty sample
+     */
+    private static int paddedLength(Sample sample) {
+        if (sample.packed != null) {
+            return sample.packed.maxLength;
+        }
+        int length = -1;
+        for (String sequence : sample.sequences) {
+            length = Math.max(length, sequence.length());
+        }
+        return length;
+    }
+
+    private long report(long[] total) {
+        if (DEBUG) {
+            System.out.println("comparisons = " + total[1]);
+            if (columns != null) {
+                System.out.println("verified by blocks of 64 = " + total[2]);
+            }
+            System.out.println("related pairs found = " + total[0]);
+        }
+        return total[0];
+    }
+
+    /**
+     * Rules out pairs of samples that can't have enough equal chunks by their sketches and sets of hashes,
+     * see {@link AbstractKMerDict#mayShare}.
+     * Returns for each probed sample if it can have related sequences in any sample after it
+     * (in any reference for queries), other samples are not probed
+     */
+    private boolean[] screenPairs(int threads, boolean query) {
+        int n = samples.size();
+        int probes = probeDicts.length;
+        boolean[] result = new boolean[probes];
+        long[] ruledOut = new long[probes];
+        int shards = Math.max(1, Math.min(threads, probes));
+        AlgorithmUtils.runShards(threads, shards, shard -> {
+            int to = AlgorithmUtils.shardStart(shard + 1, shards, probes);
+            for (int s = AlgorithmUtils.shardStart(shard, shards, probes); s < to; s++) {
+                for (int other = query ? 0 : s + 1; other < n; other++) {
+                    if (probeDicts[s].mayShare(dicts[other], probeDicts[s].chunksCount - k, !edit)) {
+                        result[s] = true;
+                    } else {
+                        ruledOut[s]++;
+                    }
+                }
+            }
+        });
+        long pairs = query ? (long) probes * n : (long) n * (n - 1) / 2;
+        System.out.println("Pairs of samples ruled out = " + Arrays.stream(ruledOut).sum() + " of " + pairs);
+        return result;
+    }
+
+    /**
+     * Output of current sample with given one is opened only when the first pair is found
+     */
+    private synchronized EdgeWriter writer(int other) {
+        if (writers[other] == null) {
+            try {
+                writers[other] = Start.getOutputWriter(current, samples.get(other), algName);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        return writers[other];
+    }
+
+    /**
+     * Worker keeps its scratch and buffers for the whole run and takes ranges of reads of current sample.
+     * It returns the number of found pairs with each sample of combined index, the number of comparisons
+     * and the number of comparisons by blocks at the end
+     */
+    private class Worker implements Callable<long[]> {
+        private final CandidateCounter counter = new CandidateCounter(offsets[samples.size()]);
+        private final long[] scratch;
+        private final short[] order;
+        private final EdgeBuffer[] out = new EdgeBuffer[samples.size()];
+        private final HammingDistance hammingDistance = new HammingDistance();
+        private final MyersLevenshteinDistance distance = new MyersLevenshteinDistance(k);
+        private final BatchHammingVerifier verifier = columns == null ? null
+                : new BatchHammingVerifier(sources, columns, offsets, Start.bitSlicedMode().equals("true"),
+                Start.threadsCount());
+
+        Worker() {
+            int chunksCount = 0;
+            for (AbstractKMerDict dict : probeDicts) {
+                chunksCount = Math.max(chunksCount, dict.chunksCount);
+            }
+            scratch = new long[chunksCount];
+            order = new short[chunksCount];
+        }
+
+        @Override
+        public long[] call() {
+            long[] found = new long[samples.size() + 2];
+            Sample sample = current;
+            PackedSequences query = verifier == null ? null : projected ? sample.projection : sample.packed;
+            AbstractKMerDict dict = currentDict;
+            IntArrayList toCompare = counter.toCompare;
+            int r;
+            while ((r = ranges.next()) != -1) {
+                for (int seq = ranges.start(r); seq < ranges.end(r); seq++) {
+                    int chunks = dict.sortChunks(seq, multiDict, scratch, order);
+                    //only samples from firstOther
+                    int from = offsets[firstOther] - 1;
+                    if (edit) {
+                        counter.count((KMerDict) dict, (KMerDict) multiDict, seq, from, k, order, chunks);
+                    } else {
+                        counter.count((KMerDictChunks) dict, (KMerDictChunks) multiDict, seq, from, k, order, chunks);
+                    }
+                    if (toCompare.isEmpty()) {
+                        continue;
+                    }
+                    //sorted candidates go sample by sample
+                    Arrays.sort(toCompare.buffer, 0, toCompare.size());
+                    if (edit) {
+                        distance.setQuery(sample, seq);
+                    }
+                    if (query != null) {
+                        found[samples.size() + 1] += verifier.verify(query, seq, toCompare, k);
+                    }
+                    int other = firstOther;
+                    for (int c = 0; c < toCompare.size(); c++) {
+                        int candidate = toCompare.get(c);
+                        while (candidate >= offsets[other + 1]) {
+                            other++;
+                        }
+                        found[samples.size()]++;
+                        int d = query != null ? verifier.distance(candidate) : BatchHammingVerifier.NOT_VERIFIED;
+                        if (d == BatchHammingVerifier.NOT_VERIFIED) {
+                            d = verify(sample, seq, other, candidate - offsets[other]);
+                        }
+                        if (d != -1) {
+                            found[other]++;
+                            add(other, seq, candidate - offsets[other], d);
+                        }
+                    }
+                }
+            }
+            for (int other = firstOther; other < samples.size(); other++) {
+                if (out[other] != null && !out[other].isEmpty()) {
+                    writer(other).write(out[other]);
+                }
+            }
+            return found;
+        }
+
+        /**
+         * Returns distance between sequences or -1 if it is greater than k, as pairwise methods do
+         */
+        private int verify(Sample sample1, int seq, int other, int s) {
+            Sample sample2 = samples.get(other);
+            if (!edit) {
+                return hammingDistance.apply(sample1, seq, sample2, s, k);
+            }
+            if (sameLength[other] && hammingDistance.apply(sample1, seq, sample2, s, k) != -1) {
+                //Hamming distance is only upper bound, so edit distance is calculated if it is written
+                return distances ? distance.apply(sample2, s) : 0;
+            }
+            return distance.apply(sample2, s);
+        }
+
+        private void add(int other, int seq, int s, int d) {
+            if (out[other] == null) {
+                out[other] = new EdgeBuffer(binary, distances);
+            }
+            out[other].add(seq, s, d);
+            if (out[other].size() > FLUSH_BYTES) {
+                writer(other).write(out[other]);
+            }
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package by.bsu.algorithms;
+
+import by.bsu.distance.HammingDistance;
+import by.bsu.distance.MyersLevenshteinDistance;
+import by.bsu.model.Sample;
+import by.bsu.util.AlgorithmUtils;
+import by.bsu.util.Utils;
+
+import java.util.Arrays;
+
+/**
+ * Distances from each read of a sample to a few pivot sequences, that rule pairs out by triangle inequality:
+ * both Hamming and edit distances are metrics, so if |d(a, p) - d(b, p)| > k for some pivot p, then d(a, b) > k
+ * and the pair doesn't need verification.
+ * The first pivot is the consensus of the sample, the others are reads chosen by farthest-first traversal:
+ * each next pivot is the read with the largest distance to the closest of already chosen pivots.
+ */
+class PivotTable {
+
+    /**
+     * The number of pivots
+     */
+    final int count;
+    /**
+     * Distances of read i are in [i * count, (i + 1) * count)
+     */
+    final int[] distances;
+
+    private PivotTable(int count, int[] distances) {
+        this.count = count;
+        this.distances = distances;
+    }
+
+    /**
+     * Computes distances to at most count pivots on given threads. Traversal stops earlier if all reads
+     * are equal to some pivot already
+     *
+     * @param edit edit distance if true, Hamming distance on padded sequences otherwise
+     */
+    static PivotTable build(Sample sample, int count, boolean edit, int threads) {
+        int n = sample.sequences.length;
+        int[][] columns = new int[count][];
+        int[] closest = new int[n];
+        Arrays.fill(closest, Integer.MAX_VALUE);
+        String pivot = Utils.consensus(Utils.profile(sample, Utils.DEFAULT_ALPHABET, threads), Utils.DEFAULT_ALPHABET);
+        int pivots = 0;
+        while (pivots < count) {
+            columns[pivots] = distances(sample, pivot, edit, threads);
+            int farthest = -1;
+            for (int i = 0; i < n; i++) {
+                closest[i] = Math.min(closest[i], columns[pivots][i]);
+                if (closest[i] > 0 && (farthest == -1 || closest[i] > closest[farthest])) {
+                    farthest = i;
+                }
+            }
+            pivots++;
+            if (farthest == -1) {
+                break;
+            }
+            pivot = sequence(sample, farthest, edit);
+        }
+        int[] distances = new int[Math.multiplyExact(n, pivots)];
+        for (int p = 0; p < pivots; p++) {
+            for (int i = 0; i < n; i++) {
+                distances[i * pivots + p] = columns[p][i];
+            }
+        }
+        return new PivotTable(pivots, distances);
+    }
+
+    /**
+     * Checks if distance between reads a and b is greater than k by distances to pivots
+     */
+    boolean rejects(int a, int b, int k) {
+        int offsetA = a * count;
+        int offsetB = b * count;
+        for (int p = 0; p < count; p++) {
+            if (Math.abs(distances[offsetA + p] - distances[offsetB + p]) > k) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Exact distances from all reads to the pivot, reads are split into shards of equal size
+     */
+    private static int[] distances(Sample sample, String pivot, boolean edit, int threads) {
+        int n = sample.sequences.length;
+        Sample pivotSample = new Sample("pivot", new String[]{pivot});
+        if (sample.packed != null) {
+            pivotSample.pack();
+        }
+        //threshold that is never exceeded, so distances are exact
+        int max = pivot.length() + (sample.packed != null ? sample.packed.maxLength : maxLength(sample));
+        int[] result = new int[n];
+        int shards = Math.max(1, Math.min(threads, n));
+        AlgorithmUtils.runShards(threads, shards, shard -> {
+            int to = AlgorithmUtils.shardStart(shard + 1, shards, n);
+            int from = AlgorithmUtils.shardStart(shard, shards, n);
+            if (edit) {
+                MyersLevenshteinDistance distance = new MyersLevenshteinDistance(max);
+                distance.setQuery(pivotSample, 0);
+                for (int i = from; i < to; i++) {
+                    result[i] = distance.apply(sample, i);
+                }
+            } else {
+                HammingDistance distance = new HammingDistance();
+                for (int i = from; i < to; i++) {
+                    result[i] = distance.apply(sample, i, pivotSample, 0, max);
+                }
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Read as pivot, padded for Hamming distance as it is compared
+     */
+    private static String sequence(Sample sample, int i, boolean edit) {
+        if (sample.packed != null) {
+            return edit ? sample.packed.toString(i) : sample.packed.sequenceForHamming(i).toString();
+        }
+        return edit ? sample.sequences[i] : Utils.stringsForHamming(new String[]{sample.sequences[i]}, maxLength(sample))[0];
+    }
+
+    private static int maxLength(Sample sample) {
+        int max = 0;
+        for (String s : sample.sequences) {
+            max = Math.max(max, s.length());
+        }
+        return max;
+    }
+}
@@ -1,24 +1,20 @@
 package by.bsu.algorithms;
 
 import by.bsu.distance.HammingDistance;
-import by.bsu.model.IntIntPair;
+import by.bsu.model.BitSlicedSequences;
 import by.bsu.model.KMerDictChunks;
+import by.bsu.model.PackedSequences;
 import by.bsu.model.Sample;
 import by.bsu.start.Start;
-import by.bsu.util.AlgorithmUtils;
-import com.carrotsearch.hppc.IntIntHashMap;
-import com.carrotsearch.hppc.IntIntMap;
-import com.carrotsearch.hppc.cursors.IntIntCursor;
+import by.bsu.util.output.EdgeBuffer;
+import by.bsu.util.output.EdgeWriter;
+import by.bsu.util.tasks.ReadRanges;
+import com.carrotsearch.hppc.IntArrayList;
 
 import java.io.IOException;
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
-import java.util.Comparator;
-import java.util.HashMap;
+import java.util.Collections;
 import java.util.List;
-import java.util.Map;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
@@ -26,9 +22,6 @@ import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.concurrent.atomic.AtomicInteger;
 
-import static by.bsu.util.AlgorithmUtils.calculateCoincidences;
-import static by.bsu.util.Utils.expandNumbers;
-import static by.bsu.util.Utils.numbers;
 
 /**
  * Created by c5239200 on 6/26/17.
@@ -37,12 +30,13 @@ import static by.bsu.util.Utils.numbers;
  */
 public class SignatureHammingMethod {
 
-    private Path output;
+    private EdgeWriter output;
     private Sample sample1;
     private Sample sample2;
 
     public static boolean DEBUG = false;
     private static volatile long tasksIteration = 0;
+    private static final int FILE_WRITE_THRESHOLD = 400;
     public static AtomicInteger coincidenceFilter = new AtomicInteger();
     public static AtomicInteger executionCount = new AtomicInteger();
 
@@ -50,59 +44,42 @@ public class SignatureHammingMethod {
         this.sample1 = sample1;
         this.sample2 = sample2;
         int comps = 0;
-        int kMerCoincidences = calculateCoincidences(dict1, dict2);
         executionCount.incrementAndGet();
-        if (kMerCoincidences < dict1.chunksCount - k) {
+        if (!dict1.mayShare(dict2, dict1.chunksCount - k, true)) {
             coincidenceFilter.incrementAndGet();
             return 0;
         }
         HammingDistance hammingDistance = new HammingDistance();
-        StringBuilder str = new StringBuilder();
-        expandNumbers(sample1.sequences.length);
-        expandNumbers(sample2.sequences.length);
+        EdgeBuffer out = new EdgeBuffer(Start.binaryOutput(), Start.distancesOutput());
         int iteration = 0;
         int length = 0;
-        int[] hits = new int[sample2.sequences.length];
+        CandidateCounter counter = new CandidateCounter(sample2.sequences.length);
+        long[] scratch = new long[dict1.chunksCount];
+        short[] order = new short[dict1.chunksCount];
         for (int seq = 0; seq < sample1.sequences.length; seq++) {
-            IntIntMap possibleSequences = new IntIntHashMap();
-            List<IntIntPair> chunks = getSortedChunksTwoSamples(dict1, dict2, seq);
-            for (int i = 0; i < chunks.size(); i++) {
-                long chunkHash = dict1.sequenceChunksHashesList[seq][chunks.get(i).l];
-                if (i <= chunks.size() - (dict1.chunksCount - k)) {
-                    for (int possibleSeq : dict2.chunksHashToSequencesMapArray[chunks.get(i).l].get(chunkHash)) {
-                        hits[possibleSeq]++;
-                    }
-                } else {
-                    IntIntMap tmp = new IntIntHashMap(possibleSequences.size());
-                    byte[] sequencesWithChunks = dict2.chunksHashToSequencesMap[chunks.get(i).l].get(chunkHash);
-                    for (IntIntCursor entry : possibleSequences) {
-                        boolean isInSecondDict = sequencesWithChunks[entry.key] == 1;
-                        if (isInSecondDict ||
-                                dict1.chunksCount - k <= entry.value + chunks.size() - i) {
-                            int add = isInSecondDict ? 1 : 0;
-                            tmp.put(entry.key, entry.value + add);
-                        }
-                    }
-                    possibleSequences = tmp;
-                }
-            }
-            for (IntIntCursor s : possibleSequences) {
-                if (seq != s.key
-                        && s.value >= dict1.chunksCount - k) {
-                    comps++;
-                    if (hammingDistance.apply(sample1.forHamming[seq], sample2.forHamming[s.key]) <= k) {
-                        str.append(numbers.get(seq)).append(" ").append(numbers.get(s.key)).append("\n");
-                        length++;
-                    }
+            //chunks are sorted by sizes of postings in the second sample
+            int chunks = dict1.sortChunks(seq, dict2, scratch, order);
+            counter.count(dict1, dict2, seq, -1, k, order, chunks);
+            for (int c = 0; c < counter.toCompare.size(); c++) {
+                int s = counter.toCompare.get(c);
+                comps++;
+                int d = hammingDistance.apply(sample1, seq, sample2, s, k);
+                if (d != -1) {
+                    out.add(seq, s, d);
+                    length++;
                 }
             }
             iteration++;
-            if (iteration % 400 == 0) {
-                Files.write(getPath(), str.toString().getBytes(), StandardOpenOption.APPEND);
-                str = new StringBuilder();
+            if (iteration % 400 == 0 && !out.isEmpty()) {
+                getWriter().write(out);
             }
         }
-        Files.write(getPath(), str.toString().getBytes(), StandardOpenOption.APPEND);
+        if (!out.isEmpty()) {
+            getWriter().write(out);
+        }
+        if (output != null) {
+            output.close();
+        }
         if (DEBUG && comps > 0) {
             System.out.printf("%s %s%n", sample1.name, sample2.name);
             System.out.println("comps = " + comps);
@@ -110,8 +87,6 @@ public class SignatureHammingMethod {
         }
         if (length > 0) {
             System.out.printf("Found %s %s. Length = %d\n", sample1.name, sample2.name, length);
-        } else {
-            Files.delete(getPath());
         }
         return length;
     }
@@ -120,95 +95,105 @@ public class SignatureHammingMethod {
         String chunks = dict.l == 0 ? " entropy-based chunks size" : " l=" + dict.l;
         System.out.println("Start Signature Hamming method for " + sample.name + " k=" + k + chunks);
         System.out.println("Input size = " + sample.sequences.length);
-        expandNumbers(sample.sequences.length);
         long[] iter = {0, 0};
         HammingDistance hammingDistance = new HammingDistance();
-        StringBuilder str = new StringBuilder();
-        Path path = Start.getOutputFilename(sample, "signature-hamming");
+        EdgeWriter writer = Start.getOutputWriter(sample, "signature-hamming");
+        EdgeBuffer out = writer.newBuffer();
         long length = 0;
         iter[0] = 0;
         long hammingTime = 0;
-        long fillTime = 0;
-        long filterTime = 0;
         long writeTime = 0;
+        CandidateCounter counter = new CandidateCounter(sample.sequences.length);
         for (int seq = 0; seq < sample.sequences.length; seq++) {
             iter[0]++;
             //write to file each 400 iterations
             if (iter[0] % 400 == 0) {
                 long start = System.nanoTime();
-                Files.write(path, str.toString().getBytes(), StandardOpenOption.APPEND);
-                str = new StringBuilder();
+                writer.write(out);
                 System.out.print("\r" + iter[0]);
                 writeTime += System.nanoTime() - start;
             }
-            int[] possibleSequences = new int[1];
-            int[] hits = new int[sample.sequences.length];
-            List<IntIntPair> sortedChunks = getSortedChunksOneSample(dict, seq);
-            List<Integer> toCompare = new ArrayList<>();
-            for (int i = 0; i < sortedChunks.size(); i++) {
-                if (i <= sortedChunks.size() - (dict.chunksCount - k)) {
-                    long start = System.nanoTime();
-                    fillPossiblePairs(dict, hits, seq, sortedChunks, i);
-                    fillTime += System.nanoTime() - start;
-                } else {
-                    long start = System.nanoTime();
-                    if (i - 1 == sortedChunks.size() - (dict.chunksCount - k)) {
-                        possibleSequences = AlgorithmUtils.fillPossibleSequencesFromArray(hits);
-                    }
-                    possibleSequences = filterPossibleSequences(dict, possibleSequences, hits, seq, k, sortedChunks, i, toCompare);
-                    filterTime += System.nanoTime() - start;
-                }
-            }
+            //avoid equal pairs
+            counter.count(dict, dict, seq, seq, k, dict.chunksOrder[seq], dict.chunksOrder[seq].length);
             long start = System.currentTimeMillis();
-            for (Integer s : toCompare) {
+            for (int c = 0; c < counter.toCompare.size(); c++) {
+                int s = counter.toCompare.get(c);
                 iter[1]++;
-                int apply = hammingDistance.apply(sample.forHamming[seq], sample.forHamming[s]);
-                if (apply <= k) {
+                int apply = hammingDistance.apply(sample, seq, sample, s, k);
+                if (apply != -1) {
                     length++;
-                    str.append(numbers.get(seq)).append(" ").append(numbers.get(s)).append("\n");
+                    out.add(seq, s, apply);
                 }
             }
             hammingTime += System.currentTimeMillis() - start;
         }
         //write the rest of computed pairs
-        Files.write(path, str.toString().getBytes(), StandardOpenOption.APPEND);
+        writer.write(out);
+        writer.close();
         System.out.println();
         System.out.println("comps = " + iter[1]);
         System.out.println("related pairs found = " + length);
 //            System.out.println("hamming time = " + hammingTime);
-//            System.out.println("fill time = " + fillTime / 1000000);
-//            System.out.println("filter time = " + filterTime / 1000000);
 //            System.out.println("write time = " + writeTime / 1000000);
-        System.out.println("Output is available at " + path.toAbsolutePath().toString());
+        System.out.println("Output is available at " + writer.path.toAbsolutePath().toString());
         return length;
     }
 
     public Long runParallel(Sample sample, KMerDictChunks dict, int k) throws IOException {
+        return runParallel(sample, dict, k, -1);
+    }
+
+    /**
+     * Finds only pairs with sequences appended after the first firstNew ones (see {@link by.bsu.util.builders.KMerDictChunksBuilder#append}):
+     * each new read is compared with all sequences before it, so pairs of old sequences, that were found by previous
+     * runs, are not searched again. Pairs are written with the new sequence first to separate output
+     */
+    public Long runDelta(Sample sample, KMerDictChunks dict, int firstNew, int k) throws IOException {
+        return runParallel(sample, dict, k, firstNew);
+    }
+
+    /**
+     * @param firstNew -1 to find all pairs, otherwise the first appended sequence
+     */
+    private Long runParallel(Sample sample, KMerDictChunks dict, int k, int firstNew) throws IOException {
         String chunks = dict.l == 0 ? " entropy-based segments size" : " l=" + dict.l;
         System.out.println("Start Signature Hamming method for " + sample.name + " k=" + k + chunks);
         System.out.println("Input size = " + sample.sequences.length);
-        expandNumbers(sample.sequences.length);
-        Path path = Start.getOutputFilename(sample, "signature-hamming");
-        int cores = Runtime.getRuntime().availableProcessors();
-
-        String threads = Start.settings.get("-threads");
-        if (threads != null) {
-            cores = Integer.valueOf(threads);
+        EdgeWriter writer = Start.getOutputWriter(sample, firstNew == -1 ? "signature-hamming" : "signature-hamming-delta");
+        if (firstNew != -1) {
+            System.out.println("New sequences = " + (sample.sequences.length - firstNew));
         }
+        int cores = Start.threadsCount();
         System.out.println("Running threads = " + cores);
         ExecutorService service = Executors.newFixedThreadPool(cores);
-        List<Map<Integer, String>> parts = new ArrayList<>();
         tasksIteration = 0;
-        int partsCount = Math.min(cores, sample.sequences.length / 400 + 1);
-        for (int i = 0; i < partsCount; i++) {
-            parts.add(new HashMap<>());
-        }
-        for (int i = 0; i < sample.sequences.length; i++) {
-            parts.get(i % partsCount).put(i, sample.sequences[i]);
+        //reads are handed out by small ranges of equal estimated work: candidates of read are bounded by
+        //sizes of its chunks postings and only reads after it are compared (before it for delta)
+        int n = sample.sequences.length;
+        int first = Math.max(0, firstNew);
+        ReadRanges ranges = ReadRanges.split(n - first, cores, r -> {
+            int seq = first + r;
+            long work = 0;
+            for (int i = 0; i < dict.chunksCount; i++) {
+                work += dict.chunksHashToSequences[i].get(dict.sequenceChunksHashesList[seq][i]).size();
+            }
+            return firstNew == -1 ? ReadRanges.triangle(work, seq, n) : ReadRanges.triangle(work, n - seq, n);
+        });
+        PivotTable pivots = null;
+        if (Start.pivotsCount() > 0) {
+            long start = System.currentTimeMillis();
+            pivots = PivotTable.build(sample, Start.pivotsCount(), false, cores);
+            System.out.println("Pivots = " + pivots.count + ", computed in " + (System.currentTimeMillis() - start) + " ms");
         }
+        String bitSliced = Start.bitSlicedMode();
+        PackedSequences[] sources = bitSliced.equals("false") ? null : BatchHammingVerifier.sources(Collections.singletonList(sample));
+        BitSlicedSequences[] columns = sources == null ? null : new BitSlicedSequences[sources.length];
         List<Callable<long[]>> tasks = new ArrayList<>();
-        //create tasks with parts of sequences
-        parts.forEach(part -> tasks.add(new SignatureHammingMethod.ParallelTask(sample, part, dict, k, path)));
+        for (int i = 0; i < Math.min(cores, ranges.size()); i++) {
+            BatchHammingVerifier verifier = columns == null ? null
+                    : new BatchHammingVerifier(sources, columns, new int[]{0, n}, bitSliced.equals("true"), cores);
+            tasks.add(new ParallelTask(sample, ranges, dict, k, firstNew, pivots, verifier, writer));
+        }
         long[] results = {0, 0, 0, 0, 0};
         try {
             List<Future<long[]>> futures = service.invokeAll(tasks);
@@ -219,12 +204,14 @@ public class SignatureHammingMethod {
                     /*
                       0 -> iteration
                       1 -> comparisons
-                      2 -> hamming
+                      2 -> verified by blocks
                       3 -> total length
                      */
                     results[0] += f[0];
                     results[1] += f[1];
+                    results[2] += f[2];
                     results[3] += f[3];
+                    results[4] += f[4];
                 } catch (InterruptedException | ExecutionException e) {
                     System.err.println("Error! Parallel tasks were not successful on get");
                     e.printStackTrace();
@@ -234,172 +221,124 @@ public class SignatureHammingMethod {
             System.err.println("Error! Parallel tasks were not successful on invoke");
             e.printStackTrace();
         }
+        writer.close();
         System.out.println();
 
+        if (pivots != null) {
+            System.out.println("rejected by pivots = " + results[4]);
+        }
         System.out.println("comparisons = " + results[1]);
+        if (columns != null) {
+            System.out.println("verified by blocks of 64 = " + results[2]);
+        }
         System.out.println("related pairs found = " + results[3]);
-        System.out.println("Output is available at " + path.toAbsolutePath().toString());
+        System.out.println("Output is available at " + writer.path.toAbsolutePath().toString());
         return results[0];
     }
 
-    /**
-     * Increments possibleSequences array with appearing sequences for given position(chunks.get(iter))
-     */
-    private void fillPossiblePairs(KMerDictChunks dict, int[] hits, int seq, List<IntIntPair> chunks, int iter) {
-        for (int possibleSeq :
-                dict.chunksHashToSequencesMapArray[chunks.get(iter).l]
-                        .get(dict.sequenceChunksHashesList[seq][chunks.get(iter).l])
-                ) {
-            //avoid equal pairs
-            if (possibleSeq <= seq) {
-                continue;
-            }
-            hits[possibleSeq]++;
-        }
-    }
-
-    /**
-     * Filters possibleSequences by removing all sequences that doesn't contain necessary amount of equal l-mers
-     * with current sequence (seq)
-     * <p>
-     * add sequence to toCompare set if it already reached necessary amount of hits so we don't need it in possibleSequences anymore
-     */
-    private int[] filterPossibleSequences(KMerDictChunks dict, int[] possibleSequences, int[] hits, int seq, int k, List<IntIntPair> chunks, int iter, List<Integer> toCompare) {
-        int[] tmp = new int[possibleSequences.length];
-        long hash = dict.sequenceChunksHashesList[seq][chunks.get(iter).l];
-        byte[] sequencesWithHashSet = dict.chunksHashToSequencesMap[chunks.get(iter).l].get(hash);
-        int last = 0;
-        for (int candidate : possibleSequences) {
-            boolean isInDict = sequencesWithHashSet[candidate] == 1;
-            // put if sequence hash l-mer for current fixed position or if it already has enough equal l-mers
-            if (isInDict ||
-                    dict.chunksCount - k <= hits[candidate] + chunks.size() - iter) {
-                if (isInDict) {
-                    hits[candidate]++;
-                }
-                if (hits[candidate] >= dict.chunksCount - k) {
-                    toCompare.add(candidate);
-                } else {
-                    tmp[last++] = candidate;
-                }
-            }
-        }
-        int[] result = new int[last];
-        System.arraycopy(tmp, 0, result, 0, last);
-        return result;
-    }
-
-    /**
-     * Returns list of sorted chunks for current sequence entity by number of sequences that contain
-     * l-mers from sequence entity fixed positions
-     */
-    private List<IntIntPair> getSortedChunksOneSample(KMerDictChunks dict, int seq) {
-        List<IntIntPair> result = new ArrayList<>();
-        //for each fixed position
-        for (int i = 0; i < dict.chunksCount; i++) {
-            long hash = dict.sequenceChunksHashesList[seq][i];
-            //add tuple -> (position, amount of sequences)
-            result.add(new IntIntPair(i, dict.chunksHashToSequencesMapArray[i].get(hash).length));
-        }
-        //sort by amount
-        result.sort(Comparator.comparing(o -> o.r));
-        return result;
-    }
-
-    /**
-     * see getSortedChunksOneSample
-     */
-    private List<IntIntPair> getSortedChunksTwoSamples(KMerDictChunks dict1, KMerDictChunks dict2, int seq) {
-        List<IntIntPair> result = new ArrayList<>();
-        for (int i = 0; i < dict1.chunksCount; i++) {
-            long hash = dict1.sequenceChunksHashesList[seq][i];
-            if (dict2.chunksHashToSequencesMapArray[i].containsKey(hash)) {
-                result.add(new IntIntPair(i, dict2.chunksHashToSequencesMapArray[i].get(hash).length));
-            }
-        }
-        result.sort(Comparator.comparing(o -> o.r));
-        return result;
-    }
-
     /**
      * Class runs almost the same code as sequential run, but on different sequences set
      */
     private class ParallelTask implements Callable<long[]> {
         private Sample sample;
-        private Map<Integer, String> sequences;
+        private ReadRanges ranges;
         private KMerDictChunks dict;
         private int k;
-        private final Path path;
+        private int firstNew;
+        /**
+         * Triangle inequality filter, null if it is off
+         */
+        private PivotTable pivots;
+        /**
+         * Verifier of candidates by blocks, null if it is off
+         */
+        private BatchHammingVerifier verifier;
+        private final EdgeWriter writer;
 
-        ParallelTask(Sample sample, Map<Integer, String> sequences, KMerDictChunks dict, int k, Path path) {
+        ParallelTask(Sample sample, ReadRanges ranges, KMerDictChunks dict, int k, int firstNew, PivotTable pivots,
+                     BatchHammingVerifier verifier, EdgeWriter writer) {
             this.sample = sample;
-            this.sequences = sequences;
+            this.ranges = ranges;
             this.dict = dict;
             this.k = k;
-            this.path = path;
+            this.firstNew = firstNew;
+            this.pivots = pivots;
+            this.verifier = verifier;
+            this.writer = writer;
         }
 
         @Override
         public long[] call() throws Exception {
             HammingDistance hammingDistance = new HammingDistance();
-            StringBuilder str = new StringBuilder();
+            EdgeBuffer out = writer.newBuffer();
+            CandidateCounter counter = new CandidateCounter(sample.sequences.length);
+            PackedSequences query = verifier == null ? null : BatchHammingVerifier.sources(Collections.singletonList(sample))[0];
             /*
               0 -> iteration
               1 -> comparisons
-              2 -> hamming
+              2 -> verified by blocks
               3 -> total length
+              4 -> rejected by pivots
              */
             long[] iters = {0, 0, 0, 0, 0};
             //only for additional QGram filter experiment(doesn't work good)
             //int q = 8;
-            int fileWriteThreshold = Math.min(sequences.size() / 10, 400);
-            for (Map.Entry<Integer, String> seqEntity : sequences.entrySet()) {
-                iters[0]++;
-                tasksIteration++;
-                //write to file each fileWriteThreshold iterations
-                if (iters[0] % fileWriteThreshold == 0) {
-                    synchronized (path) {
-                        Files.write(path, str.toString().getBytes(), StandardOpenOption.APPEND);
+            int r;
+            while ((r = ranges.next()) != -1) {
+                for (int i = ranges.start(r); i < ranges.end(r); i++) {
+                    int seq = Math.max(0, firstNew) + i;
+                    iters[0]++;
+                    tasksIteration++;
+                    //write to file each FILE_WRITE_THRESHOLD iterations
+                    if (iters[0] % FILE_WRITE_THRESHOLD == 0) {
+                        writer.write(out);
+                        System.out.print("\r" + tasksIteration);
                     }
-                    str = new StringBuilder();
-                    System.out.print("\r" + tasksIteration);
-                }
-                int[] possibleSequences = new int[1];
-                int seq = seqEntity.getKey();
-                List<IntIntPair> sortedChunks = getSortedChunksOneSample(dict, seq);
-                List<Integer> toCompare = new ArrayList<>();
-                int[] hits = new int[sample.sequences.length];
-                for (int i = 0; i < sortedChunks.size(); i++) {
-                    if (i <= sortedChunks.size() - (dict.chunksCount - k)) {
-                        fillPossiblePairs(dict, hits, seq, sortedChunks, i);
-                    } else {
-                        if (i - 1 == sortedChunks.size() - (dict.chunksCount - k)) {
-                            possibleSequences = AlgorithmUtils.fillPossibleSequencesFromArray(hits);
+                    //avoid equal pairs, new read is compared with all sequences and keeps only ones before it
+                    counter.count(dict, dict, seq, firstNew == -1 ? seq : -1, k, dict.chunksOrder[seq], dict.chunksOrder[seq].length);
+                    IntArrayList toCompare = counter.toCompare;
+                    if (firstNew != -1 || pivots != null) {
+                        //candidates that are not verified are removed, so only the rest go to blocks
+                        int last = 0;
+                        for (int c = 0; c < toCompare.size(); c++) {
+                            int s = toCompare.get(c);
+                            if (firstNew != -1 && s >= seq) {
+                                continue;
+                            }
+                            if (pivots != null && pivots.rejects(seq, s, k)) {
+                                iters[4]++;
+                                continue;
+                            }
+                            toCompare.buffer[last++] = s;
                         }
-                        possibleSequences = filterPossibleSequences(dict, possibleSequences, hits, seq, k, sortedChunks, i, toCompare);
+                        toCompare.elementsCount = last;
                     }
-                }
-                //String h1 = sample.forHamming.get(seq);
-                for (Integer s : toCompare) {
-                    iters[1]++;
-                    int apply = hammingDistance.apply(sample.forHamming[seq], sample.forHamming[s]);
-                    if (apply <= k) {
-                        iters[3]++;
-                        str.append(numbers.get(seq)).append(" ").append(numbers.get(s)).append("\n");
+                    if (verifier != null) {
+                        iters[2] += verifier.verify(query, seq, toCompare, k);
+                    }
+                    for (int c = 0; c < toCompare.size(); c++) {
+                        int s = toCompare.get(c);
+                        iters[1]++;
+                        int apply = verifier != null ? verifier.distance(s) : BatchHammingVerifier.NOT_VERIFIED;
+                        if (apply == BatchHammingVerifier.NOT_VERIFIED) {
+                            apply = hammingDistance.apply(sample, seq, sample, s, k);
+                        }
+                        if (apply != -1) {
+                            iters[3]++;
+                            out.add(seq, s, apply);
+                        }
                     }
                 }
             }
             //write the rest of computed pairs
-            synchronized (path) {
-                Files.write(path, str.toString().getBytes(), StandardOpenOption.APPEND);
-            }
+            writer.write(out);
             return iters;
         }
     }
 
-    private Path getPath() throws IOException {
+    private EdgeWriter getWriter() throws IOException {
         if (output == null) {
-            output = Start.getOutputFilename(sample1, sample2, "signature-hamming");
+            output = Start.getOutputWriter(sample1, sample2, "signature-hamming");
         }
         return output;
     }
@@ -0,0 +1,155 @@
+package by.bsu.algorithms;
+
+import by.bsu.model.PackedSequences;
+import by.bsu.model.Sample;
+import by.bsu.start.Start;
+import by.bsu.util.AlgorithmUtils;
+import by.bsu.util.output.EdgeBuffer;
+import by.bsu.util.output.EdgeWriter;
+import by.bsu.util.tasks.ReadRanges;
+import com.carrotsearch.hppc.IntArrayList;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Parallel brute force over tiles of reads. Threads take ranges of rows (reads of the first sample), each range
+ * is processed by small groups of rows, and each group is compared with columns (reads of the second sample) tile by tile,
+ * so a tile of columns is read from memory once for the whole group and stays in cache while rows go over it.
+ * Found pairs of a group are kept until all tiles are passed, so each row gets its pairs in increasing order,
+ * the same as sequential brute force writes them.
+ * Output of two samples is opened only when the first pair is found, as most pairs of samples have no related reads.
+ */
+class TiledBruteForce {
+
+    /**
+     * Size of columns tile in bytes, a half of usual L2 cache, so rows and distance buffers fit too
+     */
+    private static final int TILE_BYTES = 1 << 17;
+    private static final int MIN_TILE = 16;
+    private static final int MAX_TILE = 4096;
+    /**
+     * The number of rows that go over the same tile
+     */
+    private static final int ROWS_GROUP = 16;
+
+    /**
+     * Distance kernel of one thread, instances are not shared
+     */
+    interface Kernel {
+        /**
+         * Returns distance between row i and column j or -1 if it is greater than threshold
+         */
+        int apply(int i, int j);
+    }
+
+    /**
+     * Compares all pairs of reads of single sample (i < j) or all pairs of reads of two samples
+     *
+     * @param columns the same sample as rows for single sample run
+     * @param kernels creates kernel for each thread
+     * @return the number of found pairs
+     */
+    static long run(Sample rows, Sample columns, String algName, Supplier<Kernel> kernels) throws IOException {
+        boolean single = rows == columns;
+        Output output = new Output(rows, columns, algName);
+        if (single) {
+            output.writer();
+        }
+        boolean binary = Start.binaryOutput();
+        boolean distances = Start.distancesOutput();
+        int n = rows.sequences.length;
+        int m = columns.sequences.length;
+        int tile = tileSize(columns);
+        int threads = Start.threadsCount();
+        System.out.println("Running threads = " + threads + ", tile = " + tile + " reads");
+        ReadRanges ranges = ReadRanges.split(n, threads, i -> single ? m - i - 1 : m);
+        AtomicLong found = new AtomicLong();
+        AlgorithmUtils.runShards(threads, threads, shard -> {
+            Kernel kernel = kernels.get();
+            EdgeBuffer out = new EdgeBuffer(binary, distances);
+            IntArrayList[] pairs = new IntArrayList[ROWS_GROUP];
+            for (int g = 0; g < ROWS_GROUP; g++) {
+                pairs[g] = new IntArrayList();
+            }
+            long count = 0;
+            int r;
+            while ((r = ranges.next()) != -1) {
+                for (int from = ranges.start(r); from < ranges.end(r); from += ROWS_GROUP) {
+                    int to = Math.min(ranges.end(r), from + ROWS_GROUP);
+                    for (int j0 = single ? from + 1 : 0; j0 < m; j0 += tile) {
+                        int j1 = Math.min(m, j0 + tile);
+                        for (int i = from; i < to; i++) {
+                            IntArrayList row = pairs[i - from];
+                            for (int j = single ? Math.max(j0, i + 1) : j0; j < j1; j++) {
+                                int d = kernel.apply(i, j);
+                                if (d != -1) {
+                                    row.add(j, d);
+                                }
+                            }
+                        }
+                    }
+                    for (int i = from; i < to; i++) {
+                        IntArrayList row = pairs[i - from];
+                        for (int p = 0; p < row.size(); p += 2) {
+                            out.add(i, row.get(p), row.get(p + 1));
+                        }
+                        count += row.size() / 2;
+                        row.clear();
+                    }
+                    if (!out.isEmpty()) {
+                        output.writer().write(out);
+                    }
+                }
+            }
+            found.addAndGet(count);
+        });
+        System.out.println("length = " + found.get());
+        if (output.writer != null) {
+            output.writer.close();
+            System.out.println("Output is available at " + output.writer.path.toAbsolutePath().toString());
+        }
+        return found.get();
+    }
+
+    /**
+     * Output file of the run, opened by the first thread that needs it
+     */
+    private static class Output {
+        private final Sample rows;
+        private final Sample columns;
+        private final String algName;
+        private EdgeWriter writer;
+
+        Output(Sample rows, Sample columns, String algName) {
+            this.rows = rows;
+            this.columns = columns;
+            this.algName = algName;
+        }
+
+        synchronized EdgeWriter writer() {
+            if (writer == null) {
+                try {
+                    writer = rows == columns ? Start.getOutputWriter(rows, algName)
+                            : Start.getOutputWriter(rows, columns, algName);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+            return writer;
+        }
+    }
+
+    /**
+     * Number of reads in columns tile, packed reads take 2 bits per base
+     */
+    private static int tileSize(Sample sample) {
+        PackedSequences packed = sample.packed;
+        long bytesPerRead = packed != null
+                ? 8L * packed.wordsPerSequence
+                : 2L * (sample.sequences.length == 0 ? 1 : sample.sequences[0].length());
+        return (int) Math.max(MIN_TILE, Math.min(MAX_TILE, TILE_BYTES / Math.max(1, bytesPerRead)));
+    }
+}
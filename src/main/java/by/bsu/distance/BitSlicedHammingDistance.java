@@ -0,0 +1,175 @@
+package by.bsu.distance;
+
+import by.bsu.model.BitSlicedSequences;
+import by.bsu.model.PackedSequences;
+
+import java.util.Arrays;
+
+/**
+ * Hamming distance between one query and up to 64 sequences of a block of {@link BitSlicedSequences} at once.
+ *
+ * <p>
+ * Positions that are the same in the whole block are compared with the query as packed words, and the number
+ * of differences on them is added to all lanes. Query symbols are broadcast to whole words by
+ * {@link #setQuery(PackedSequences, int)}, so for each varying position XOR with the block words gives the lanes
+ * that differ from the query. Distances of lanes are kept in bit-sliced counters (word b holds bit b of all counters)
+ * that start from 2^bits - (k + 1), so a lane overflows the counter exactly when its distance exceeds k and it is dropped.
+ * Comparison stops as soon as no lane is left.
+ * </p>
+ *
+ * <p>
+ * Result is the same as {@link HammingDistance#apply(PackedSequences, int, PackedSequences, int, int)} gives.
+ * Buffers are reused, so instance must not be shared between threads.
+ * </p>
+ */
+public class BitSlicedHammingDistance {
+
+    private static final int WORDS = BitSlicedSequences.WORDS_PER_POSITION;
+    private static final long LOW_BITS = 0x5555_5555_5555_5555L;
+    private static final int SMALL_BITS = 4;
+    /**
+     * Thresholds up to this one are counted in registers, that is faster than pairwise comparison for full blocks.
+     * Larger ones are slower than it
+     */
+    public static final int SMALL_THRESHOLD = (1 << SMALL_BITS) - 1;
+    private static final int CHECK_MASK = 15;
+
+    /**
+     * Broadcast query, the same layout as one block of {@link BitSlicedSequences}
+     */
+    private long[] query = new long[0];
+    private long[] queryWords = new long[0];
+    private long[] queryMask = new long[0];
+    private int length;
+    private final long[] counters = new long[32];
+
+    /**
+     * Counts differences of varying positions in four counter bits, returns lanes that are not dropped
+     */
+    private long applySmall(BitSlicedSequences columns, int block, long lanes) {
+        long c0 = counters[0];
+        long c1 = counters[1];
+        long c2 = counters[2];
+        long c3 = counters[3];
+        long alive = lanes;
+        long[] words = columns.blocks[block];
+        int[] varying = columns.varying[block];
+        long[] q = query;
+        for (int v = 0, column = 0; v < varying.length; v++, column += WORDS) {
+            int position = varying[v] * WORDS;
+            long carry = ((words[column] ^ q[position]) | (words[column + 1] ^ q[position + 1])
+                    | (words[column + 2] ^ q[position + 2])) & alive;
+            long next = c0 & carry;
+            c0 ^= carry;
+            carry = next;
+            next = c1 & carry;
+            c1 ^= carry;
+            carry = next;
+            next = c2 & carry;
+            c2 ^= carry;
+            carry = next;
+            next = c3 & carry;
+            c3 ^= carry;
+            //carry out of the last counter bit means that distance is k + 1
+            alive &= ~next;
+            //checked rarely, as a branch per position costs more than a few extra positions
+            if ((v & CHECK_MASK) == CHECK_MASK && alive == 0) {
+                break;
+            }
+        }
+        counters[0] = c0;
+        counters[1] = c1;
+        counters[2] = c2;
+        counters[3] = c3;
+        return alive;
+    }
+
+    private long applyLarge(BitSlicedSequences columns, int block, long lanes, int bits) {
+        long alive = lanes;
+        long[] words = columns.blocks[block];
+        int[] varying = columns.varying[block];
+        long[] q = query;
+        for (int v = 0, column = 0; v < varying.length && alive != 0; v++, column += WORDS) {
+            int position = varying[v] * WORDS;
+            long carry = ((words[column] ^ q[position]) | (words[column + 1] ^ q[position + 1])
+                    | (words[column + 2] ^ q[position + 2])) & alive;
+            for (int b = 0; b < bits && carry != 0; b++) {
+                long next = counters[b] & carry;
+                counters[b] ^= carry;
+                carry = next;
+            }
+            alive &= ~carry;
+        }
+        return alive;
+    }
+
+    /**
+     * Sets sequence i as query, it is compared with sequences padded to the same length only
+     */
+    public void setQuery(PackedSequences packed, int i) {
+        length = packed.maxLength;
+        if (query.length < length * WORDS) {
+            query = new long[length * WORDS];
+        }
+        int offset = i * packed.wordsPerSequence;
+        long[] mask = packed.masks[i];
+        queryWords = Arrays.copyOfRange(packed.words, offset, offset + packed.wordsPerSequence);
+        queryMask = mask == null ? new long[packed.wordsPerSequence] : mask;
+        for (int w = 0, pos = 0; w < packed.wordsPerSequence; w++) {
+            long word = packed.words[offset + w];
+            long maskWord = mask == null ? 0 : mask[w];
+            int to = Math.min(length, pos + PackedSequences.BASES_PER_WORD);
+            for (; pos < to; pos++, word >>>= 2, maskWord >>>= 2) {
+                int column = pos * WORDS;
+                query[column] = -(word & 1);
+                query[column + 1] = -(word >>> 1 & 1);
+                query[column + 2] = -(maskWord & 1);
+            }
+        }
+    }
+
+    /**
+     * Compares the query with lanes of the block, for each lane t of lanes distances[offset + t] is set
+     * to the distance if it is less or equal to k, or to -1 otherwise
+     *
+     * @throws IllegalArgumentException if sequences are padded to different length than the query
+     */
+    public void apply(BitSlicedSequences columns, int block, long lanes, int k, int[] distances, int offset) {
+        if (columns.maxLength != length) {
+            throw new IllegalArgumentException("Strings must have the same length");
+        }
+        int same = 0;
+        long[] sameWords = columns.sameWords[block];
+        long[] sameMasks = columns.sameMasks[block];
+        long[] samePositions = columns.samePositions[block];
+        for (int w = 0; w < sameWords.length; w++) {
+            long diff = ((queryWords[w] ^ sameWords[w]) | (queryMask[w] ^ sameMasks[w])) & samePositions[w];
+            same += Long.bitCount((diff | diff >>> 1) & LOW_BITS);
+        }
+        if (same > k) {
+            for (long rest = lanes; rest != 0; rest &= rest - 1) {
+                distances[offset + Long.numberOfTrailingZeros(rest)] = -1;
+            }
+            return;
+        }
+        //small thresholds use four counter bits that are kept in registers
+        int bits = Math.max(SMALL_BITS, 64 - Long.numberOfLeadingZeros(k));
+        long start = (1L << bits) - (k + 1);
+        for (int b = 0; b < bits; b++) {
+            counters[b] = (start + same >>> b & 1) != 0 ? -1L : 0;
+        }
+        long alive = bits == SMALL_BITS ? applySmall(columns, block, lanes) : applyLarge(columns, block, lanes, bits);
+        for (long rest = lanes; rest != 0; rest &= rest - 1) {
+            int t = Long.numberOfTrailingZeros(rest);
+            if ((alive >>> t & 1) == 0) {
+                distances[offset + t] = -1;
+                continue;
+            }
+            long value = 0;
+            for (int b = 0; b < bits; b++) {
+                value |= (counters[b] >>> t & 1) << b;
+            }
+            distances[offset + t] = (int) (value - start);
+        }
+    }
+}
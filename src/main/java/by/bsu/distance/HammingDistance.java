@@ -1,5 +1,8 @@
 package by.bsu.distance;
 
+import by.bsu.model.PackedSequences;
+import by.bsu.model.Sample;
+import by.bsu.model.SparseDiffs;
 
 public class HammingDistance {
 
@@ -48,6 +51,182 @@ public class HammingDistance {
         return distance;
     }
 
+    /**
+     * Lowest bit of each 2-bit lane
+     */
+    private static final long LOW_BITS = 0x5555_5555_5555_5555L;
+
+    /**
+     * Find the Hamming Distance between two packed sequences padded to the same length,
+     * the result is the same as for corresponding {@link by.bsu.model.Sample#forHamming()} strings.
+     *
+     * @param left  packed sequences of the first sample
+     * @param i     index of the first sequence
+     * @param right packed sequences of the second sample
+     * @param j     index of the second sequence
+     * @return distance
+     * @throws IllegalArgumentException if sequences are padded to different length
+     */
+    public int apply(PackedSequences left, int i, PackedSequences right, int j) {
+        return apply(left, i, right, j, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Find the Hamming Distance between two packed sequences if it is less or equal to k.
+     * <p>
+     * <p>Words of both sequences are XORed, each 2-bit lane is folded to its lowest bit and the bits are counted
+     * with {@link Long#bitCount(long)}, so 32 positions are compared at once. Lanes under the mask have both bits set,
+     * so a masked position differs from an unmasked one. Symbols from {@link PackedSequences#otherSymbols} have equal
+     * lanes, so positions where both sequences have them are compared by symbols after the words.
+     * Comparison stops as soon as distance exceeds k.</p>
+     *
+     * @param left  packed sequences of the first sample
+     * @param i     index of the first sequence
+     * @param right packed sequences of the second sample
+     * @param j     index of the second sequence
+     * @param k     threshold
+     * @return hamming distance between two sequences if it is less or equal to k, returns -1 otherwise
+     * @throws IllegalArgumentException if sequences are padded to different length
+     */
+    public int apply(PackedSequences left, int i, PackedSequences right, int j, int k) {
+        if (left.maxLength != right.maxLength) {
+            throw new IllegalArgumentException("Strings must have the same length");
+        }
+        int distance = 0;
+        int words = left.wordsPerSequence;
+        long[] lw = left.words;
+        long[] rw = right.words;
+        int li = i * words;
+        int rj = j * words;
+        long[] lm = left.masks[i];
+        long[] rm = right.masks[j];
+        if (lm == null && rm == null) {
+            for (int w = 0; w < words; w++) {
+                long diff = lw[li + w] ^ rw[rj + w];
+                distance += Long.bitCount((diff | diff >>> 1) & LOW_BITS);
+                if (distance > k) {
+                    return -1;
+                }
+            }
+            return distance;
+        }
+        for (int w = 0; w < words; w++) {
+            long diff = (lw[li + w] ^ rw[rj + w]) | ((lm == null ? 0 : lm[w]) ^ (rm == null ? 0 : rm[w]));
+            distance += Long.bitCount((diff | diff >>> 1) & LOW_BITS);
+            if (distance > k) {
+                return -1;
+            }
+        }
+        if (left.otherPositions[i] != null && right.otherPositions[j] != null) {
+            distance += otherDifferences(left, i, right, j);
+        }
+        return distance > k ? -1 : distance;
+    }
+
+    /**
+     * Counts positions where both sequences have different symbols from {@link PackedSequences#otherSymbols},
+     * their lanes are equal, so words don't count them
+     */
+    private static int otherDifferences(PackedSequences left, int i, PackedSequences right, int j) {
+        int[] lp = left.otherPositions[i];
+        int[] rp = right.otherPositions[j];
+        char[] ls = left.otherSymbols[i];
+        char[] rs = right.otherSymbols[j];
+        int result = 0;
+        for (int a = 0, b = 0; a < lp.length && b < rp.length; ) {
+            if (lp[a] < rp[b]) {
+                a++;
+            } else if (lp[a] > rp[b]) {
+                b++;
+            } else {
+                if (ls[a] != rs[b]) {
+                    result++;
+                }
+                a++;
+                b++;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Find the Hamming Distance between two sequences stored as differences from the same consensus
+     * if it is less or equal to k.
+     * <p>
+     * <p>Sorted lists of differences are merged: position that is only in one list differs,
+     * position that is in both lists differs if symbols are not equal. Comparison stops as soon as distance exceeds k,
+     * so it takes at most the number of differences of both sequences steps, whatever the length is.</p>
+     *
+     * @return hamming distance between two sequences if it is less or equal to k, returns -1 otherwise
+     */
+    public int apply(SparseDiffs left, int i, SparseDiffs right, int j, int k) {
+        int[] lp = left.positions;
+        int[] rp = right.positions;
+        int a = left.offsets[i];
+        int aEnd = left.offsets[i + 1];
+        int b = right.offsets[j];
+        int bEnd = right.offsets[j + 1];
+        int distance = 0;
+        while (a < aEnd && b < bEnd) {
+            if (lp[a] < rp[b]) {
+                a++;
+                distance++;
+            } else if (lp[a] > rp[b]) {
+                b++;
+                distance++;
+            } else {
+                if (left.symbols[a] != right.symbols[b]) {
+                    distance++;
+                }
+                a++;
+                b++;
+            }
+            if (distance > k) {
+                return -1;
+            }
+        }
+        distance += aEnd - a + bEnd - b;
+        return distance > k ? -1 : distance;
+    }
+
+    /**
+     * Find the Hamming Distance between sequences of two samples if it is less or equal to k.
+     * Uses differences from common consensus ({@link Sample#diffs}), projections on polymorphic positions
+     * ({@link Sample#projection}) or packed sequences when both samples have them
+     * and strings otherwise, as if they were padded (see {@link Sample#forHamming()})
+     *
+     * @return hamming distance between two sequences if it is less or equal to k, returns -1 otherwise
+     */
+    public int apply(Sample left, int i, Sample right, int j, int k) {
+        if (left.diffs != null && right.diffs != null && left.diffs.consensus == right.diffs.consensus) {
+            return apply(left.diffs, i, right.diffs, j, k);
+        }
+        if (left.projection != null && right.projection != null) {
+            return apply(left.projection, i, right.projection, j, k);
+        }
+        if (left.packed != null && right.packed != null) {
+            return apply(left.packed, i, right.packed, j, k);
+        }
+        return applyPadded(left.sequences[i], right.sequences[j], k);
+    }
+
+    /**
+     * Hamming distance between strings padded to one length, each position that is in one string only differs,
+     * so strings are not copied to pad them
+     *
+     * @return distance if it is less or equal to k, returns -1 otherwise
+     */
+    private static int applyPadded(String left, String right, int k) {
+        int common = Math.min(left.length(), right.length());
+        int distance = Math.max(left.length(), right.length()) - common;
+        for (int i = 0; i < common && distance <= k; i++) {
+            if (left.charAt(i) != right.charAt(i)) {
+                distance++;
+            }
+        }
+        return distance > k ? -1 : distance;
+    }
+
     /**
      * Find the Hamming Distance between two char arrays with the same
      * length.
@@ -1,5 +1,7 @@
 package by.bsu.distance;
 
+import by.bsu.model.PackedSequences;
+
 import java.util.Arrays;
 
 /**
@@ -97,6 +99,20 @@ public class LevenshteinDistance {
         return unlimitedCompare(left, right);
     }
 
+    /**
+     * <p>Find the Levenshtein distance between two packed sequences without unpacking them to Strings.</p>
+     *
+     * @param left packed sequences of the first sample
+     * @param i index of the first sequence
+     * @param right packed sequences of the second sample
+     * @param j index of the second sequence
+     * @return result distance, or -1
+     * @see #apply(CharSequence, CharSequence)
+     */
+    public Integer apply(PackedSequences left, int i, PackedSequences right, int j) {
+        return apply(left.sequence(i), right.sequence(j));
+    }
+
     /**
      * Gets the default instance.
      *
@@ -0,0 +1,417 @@
+package by.bsu.distance;
+
+import by.bsu.model.PackedSequences;
+import by.bsu.model.Sample;
+
+import java.util.Arrays;
+
+/**
+ * Bounded Levenshtein distance based on bit-vector algorithm of Myers with the block extension of Hyyro.
+ *
+ * <p>
+ * If 2 * threshold + 2 fits in a machine word, only the diagonal band of width 2 * threshold + 1 is computed
+ * and one column of the band takes a single word (banded version of Hyyro), so comparison takes O(n) word operations.
+ * Otherwise query is split into blocks of 64 symbols and all blocks of the column are updated for each text symbol,
+ * which takes O(n * m / 64). In both cases comparison stops as soon as the distance can't be less or equal to threshold.
+ * </p>
+ *
+ * <p>
+ * Match vectors (peq table) are built once by {@link #setQuery(CharSequence)} and reused for all texts
+ * compared with this query. All buffers are reused, so there is no allocation per comparison,
+ * but it means that instance must not be shared between threads.
+ * </p>
+ *
+ * <p>
+ * Result is always the same as {@link LevenshteinDistance#apply(CharSequence, CharSequence)} with the same threshold.
+ * </p>
+ */
+public class MyersLevenshteinDistance {
+
+    private static final int WORD = 64;
+    /**
+     * Slots of peq table, each slot has match vectors for all blocks
+     */
+    private static final int NO_MATCH_SLOT = 4;
+    private static final int EXTRA_SLOTS = 5;
+
+    private final int threshold;
+    /**
+     * True if the band of width 2 * threshold + 1 and one extra row fit in one word
+     */
+    private final boolean banded;
+    private final long bandMask;
+    private final long bandBottom;
+
+    private int m;
+    private int blocks;
+    private long lastBit;
+    private long[] peq = new long[0];
+    private long[] pv = new long[0];
+    private long[] mv = new long[0];
+    /**
+     * Match vectors of the band for each slot and column, bandEq[slot * bandColumns + column]
+     */
+    private long[] bandEq = new long[0];
+    private int bandColumns;
+    /**
+     * State of the current comparison: length of text, processed columns and score.
+     * In blocked mode score is the distance in the last row of the current column,
+     * in banded mode it is the value in the top row of the band
+     */
+    private int n;
+    private int column;
+    private int score;
+    private long bandPv;
+    private long bandMv;
+    /**
+     * Bits 1..(row of m in the band) to sum vertical deltas from the top of the band to the last row
+     */
+    private long lastRowMask;
+    /**
+     * Query symbols other than A, C, G, T, symbol extraSymbols[i] uses slot EXTRA_SLOTS + i
+     */
+    private char[] extraSymbols = new char[4];
+    private int extraCount;
+
+    public MyersLevenshteinDistance(int threshold) {
+        if (threshold < 0) {
+            throw new IllegalArgumentException("Threshold must not be negative");
+        }
+        this.threshold = threshold;
+        this.banded = 2 * threshold + 2 <= WORD;
+        this.bandMask = banded ? -1L >>> (WORD - 2 * threshold - 1) : 0;
+        this.bandBottom = banded ? 1L << (2 * threshold + 1) : 0;
+    }
+
+    /**
+     * Builds match vectors for the query, which is used by all following apply(text) calls
+     */
+    public void setQuery(CharSequence query) {
+        prepare(query.length());
+        for (int i = 0; i < m; i++) {
+            setMatch(querySlot(query.charAt(i)), i);
+        }
+        buildBand();
+    }
+
+    public void setQuery(PackedSequences packed, int i) {
+        prepare(packed.lengths[i]);
+        int offset = i * packed.wordsPerSequence;
+        long[] mask = packed.masks[i];
+        for (int w = 0, pos = 0; pos < m; w++) {
+            long word = packed.words[offset + w];
+            long maskWord = mask == null ? 0 : mask[w];
+            for (int end = Math.min(m, pos + PackedSequences.BASES_PER_WORD); pos < end; pos++, word >>>= 2, maskWord >>>= 2) {
+                int slot = (maskWord & 1) == 0 ? (int) (word & 3) : querySlot(packed.charAt(i, pos));
+                setMatch(slot, pos);
+            }
+        }
+        buildBand();
+    }
+
+    /**
+     * Sets sequence i of the sample as query, packed sequences are used if sample has them
+     */
+    public void setQuery(Sample sample, int i) {
+        if (sample.packed != null) {
+            setQuery(sample.packed, i);
+        } else {
+            setQuery(sample.sequences[i]);
+        }
+    }
+
+    /**
+     * Find the Levenshtein distance between the query and the text if it's less than or equal to the threshold
+     *
+     * @return result distance, or -1
+     */
+    public int apply(CharSequence text) {
+        if (!start(text.length())) {
+            return result(score);
+        }
+        if (banded) {
+            long p = bandPv;
+            long mvb = bandMv;
+            int value = score;
+            for (int j = 1; j <= n; j++) {
+                long eq = bandEq[textSlot(text.charAt(j - 1)) * bandColumns + j];
+                p |= bandBottom;
+                long xv = eq | mvb;
+                long xh = (((eq & p) + p) ^ p) | eq;
+                long ph = mvb | ~(xh | p);
+                long mh = p & xh;
+                value += (int) (ph & 1) - (int) (mh & 1);
+                ph = (ph << 1) | 1L;
+                mh <<= 1;
+                p = mh | ~(xv | ph);
+                mvb = ph & xv;
+                value += (int) (p >>> 1 & 1) - (int) (mvb >>> 1 & 1);
+                p = (p >>> 1) & bandMask;
+                mvb = (mvb >>> 1) & bandMask;
+                // values along a diagonal never decrease, so the cell of the last diagonal bounds the final distance
+                if (value + Long.bitCount(p & lastRowMask) - Long.bitCount(mvb & lastRowMask) > threshold) {
+                    return -1;
+                }
+            }
+            return result(value + Long.bitCount(p & lastRowMask) - Long.bitCount(mvb & lastRowMask));
+        }
+        for (int j = 0; j < n; j++) {
+            if (step(textSlot(text.charAt(j))) > threshold) {
+                return -1;
+            }
+        }
+        return result(score);
+    }
+
+    public int apply(PackedSequences packed, int j) {
+        if (!start(packed.lengths[j])) {
+            return result(score);
+        }
+        int offset = j * packed.wordsPerSequence;
+        long[] mask = packed.masks[j];
+        if (banded) {
+            long p = bandPv;
+            long mvb = bandMv;
+            int value = score;
+            for (int w = 0, col = 1; col <= n; w++) {
+                long word = packed.words[offset + w];
+                long maskWord = mask == null ? 0 : mask[w];
+                for (int end = Math.min(n, col + PackedSequences.BASES_PER_WORD - 1); col <= end; col++, word >>>= 2, maskWord >>>= 2) {
+                    int slot = (maskWord & 1) == 0 ? (int) (word & 3) : textSlot(packed.charAt(j, col - 1));
+                    long eq = bandEq[slot * bandColumns + col];
+                    p |= bandBottom;
+                    long xv = eq | mvb;
+                    long xh = (((eq & p) + p) ^ p) | eq;
+                    long ph = mvb | ~(xh | p);
+                    long mh = p & xh;
+                    value += (int) (ph & 1) - (int) (mh & 1);
+                    ph = (ph << 1) | 1L;
+                    mh <<= 1;
+                    p = mh | ~(xv | ph);
+                    mvb = ph & xv;
+                    value += (int) (p >>> 1 & 1) - (int) (mvb >>> 1 & 1);
+                    p = (p >>> 1) & bandMask;
+                    mvb = (mvb >>> 1) & bandMask;
+                    if (value + Long.bitCount(p & lastRowMask) - Long.bitCount(mvb & lastRowMask) > threshold) {
+                        return -1;
+                    }
+                }
+            }
+            return result(value + Long.bitCount(p & lastRowMask) - Long.bitCount(mvb & lastRowMask));
+        }
+        for (int w = 0, pos = 0; pos < n; w++) {
+            long word = packed.words[offset + w];
+            long maskWord = mask == null ? 0 : mask[w];
+            for (int end = Math.min(n, pos + PackedSequences.BASES_PER_WORD); pos < end; pos++, word >>>= 2, maskWord >>>= 2) {
+                int slot = (maskWord & 1) == 0 ? (int) (word & 3) : textSlot(packed.charAt(j, pos));
+                if (step(slot) > threshold) {
+                    return -1;
+                }
+            }
+        }
+        return result(score);
+    }
+
+    /**
+     * Compares the query with sequence j of the sample, packed sequences are used if sample has them
+     */
+    public int apply(Sample sample, int j) {
+        return sample.packed != null ? apply(sample.packed, j) : apply(sample.sequences[j]);
+    }
+
+    /**
+     * Sets left as query and compares it with right. Use {@link #setQuery(CharSequence)} and {@link #apply(CharSequence)}
+     * if the same sequence is compared with many others
+     *
+     * @return result distance, or -1
+     */
+    public int apply(CharSequence left, CharSequence right) {
+        setQuery(left);
+        return apply(right);
+    }
+
+    public int getThreshold() {
+        return threshold;
+    }
+
+    /**
+     * Resets column state before the text processing.
+     *
+     * @return false if there is nothing to compute and score already is the result
+     */
+    private boolean start(int textLength) {
+        n = textLength;
+        column = 0;
+        if (Math.abs(n - m) > threshold || m == 0) {
+            score = Math.abs(n - m) > threshold ? Integer.MAX_VALUE : n;
+            return false;
+        }
+        if (banded) {
+            // band of the column 0 covers rows -threshold..threshold, D[i][0] = |i|
+            // vertical deltas are -1 for rows <= 0 and +1 for rows > 0
+            bandMv = -1L >>> (WORD - threshold - 1);
+            bandPv = bandMask & ~bandMv;
+            score = threshold;
+            int lastRow = m - n + threshold;
+            lastRowMask = lastRow == 0 ? 0 : (-1L >>> (WORD - lastRow)) << 1;
+            return true;
+        }
+        for (int b = 0; b < blocks; b++) {
+            pv[b] = -1L;
+            mv[b] = 0;
+        }
+        score = m;
+        return true;
+    }
+
+    /**
+     * Processes next text symbol in blocked mode
+     *
+     * @return lower bound for the distance between the query and the whole text
+     */
+    private int step(int slot) {
+        column++;
+        score += advance(slot);
+        // each remaining column can decrease the distance at most by one
+        return score - (n - column);
+    }
+
+    private int result(int distance) {
+        return distance <= threshold ? distance : -1;
+    }
+
+    /**
+     * Band of the column j covers rows j-threshold..j+threshold, bit t is row j-threshold+t.
+     * The column is computed in coordinates of the previous column with one more row at the bottom, which is out of the band,
+     * so its vertical delta is taken as +1. Rows above the band are also treated as growing by +1 per column.
+     * These values are only upper bounds, but any cell with the distance at most threshold has optimal path inside the band,
+     * so such cells are exact.
+     * Rows above the matrix (i < 0) hold D[i][j] = j - i and never match, so row 0 is j as it should be.
+     * <p>
+     * Builds match vectors of the extended band for every column, the top row of column j is j - 1 - threshold,
+     * which is the query symbol with index j - 2 - threshold
+     */
+    private void buildBand() {
+        if (!banded) {
+            return;
+        }
+        bandColumns = m + threshold + 1;
+        int slots = EXTRA_SLOTS + extraCount;
+        if (bandEq.length < slots * bandColumns) {
+            bandEq = new long[slots * bandColumns];
+        }
+        for (int slot = 0; slot < slots; slot++) {
+            for (int j = 1; j < bandColumns; j++) {
+                bandEq[slot * bandColumns + j] = window(slot * blocks, j - 2 - threshold);
+            }
+        }
+    }
+
+    /**
+     * Returns 64 bits of the match vector from the given query position, positions out of the query never match
+     */
+    private long window(int base, int from) {
+        if (from < 0) {
+            return from <= -WORD ? 0 : peq[base] << -from;
+        }
+        int w = from / WORD;
+        int off = from % WORD;
+        long result = w < blocks ? peq[base + w] >>> off : 0;
+        if (off != 0 && w + 1 < blocks) {
+            result |= peq[base + w + 1] << (WORD - off);
+        }
+        return result;
+    }
+
+    /**
+     * Processes one text symbol for all blocks of the column
+     *
+     * @return change of distance in the last row
+     */
+    private int advance(int slot) {
+        int base = slot * blocks;
+        // top row of the matrix is 0, 1, 2,... so horizontal delta coming to the first block is always +1
+        int hin = 1;
+        for (int b = 0; b < blocks; b++) {
+            long p = pv[b];
+            long mvb = mv[b];
+            long eq = peq[base + b];
+            long hinIsNeg = hin < 0 ? 1L : 0L;
+            long xv = eq | mvb;
+            eq |= hinIsNeg;
+            long xh = (((eq & p) + p) ^ p) | eq;
+            long ph = mvb | ~(xh | p);
+            long mh = p & xh;
+            long high = b == blocks - 1 ? lastBit : Long.MIN_VALUE;
+            int hout = (ph & high) != 0 ? 1 : (mh & high) != 0 ? -1 : 0;
+            ph <<= 1;
+            mh <<= 1;
+            mh |= hinIsNeg;
+            if (hin > 0) {
+                ph |= 1L;
+            }
+            pv[b] = mh | ~(xv | ph);
+            mv[b] = ph & xv;
+            hin = hout;
+        }
+        return hin;
+    }
+
+    private void prepare(int length) {
+        m = length;
+        blocks = Math.max(1, (m + WORD - 1) / WORD);
+        lastBit = 1L << ((m - 1 + WORD) % WORD);
+        extraCount = 0;
+        if (pv.length < blocks) {
+            pv = new long[blocks];
+            mv = new long[blocks];
+        }
+        int size = EXTRA_SLOTS * blocks;
+        if (peq.length < size) {
+            peq = new long[size];
+        } else {
+            Arrays.fill(peq, 0, size, 0L);
+        }
+    }
+
+    private void setMatch(int slot, int position) {
+        peq[slot * blocks + position / WORD] |= 1L << (position % WORD);
+    }
+
+    private int querySlot(char c) {
+        int slot = textSlot(c);
+        if (slot != NO_MATCH_SLOT) {
+            return slot;
+        }
+        if (extraCount == extraSymbols.length) {
+            extraSymbols = Arrays.copyOf(extraSymbols, extraCount * 2);
+        }
+        extraSymbols[extraCount++] = c;
+        int size = (EXTRA_SLOTS + extraCount) * blocks;
+        if (peq.length < size) {
+            peq = Arrays.copyOf(peq, size * 2);
+        }
+        Arrays.fill(peq, size - blocks, size, 0L);
+        return EXTRA_SLOTS + extraCount - 1;
+    }
+
+    private int textSlot(char c) {
+        switch (c) {
+            case 'A':
+                return 0;
+            case 'C':
+                return 1;
+            case 'G':
+                return 2;
+            case 'T':
+                return 3;
+            default:
+                for (int i = 0; i < extraCount; i++) {
+                    if (extraSymbols[i] == c) {
+                        return EXTRA_SLOTS + i;
+                    }
+                }
+                return NO_MATCH_SLOT;
+        }
+    }
+}
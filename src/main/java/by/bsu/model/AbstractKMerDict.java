@@ -1,22 +1,15 @@
 package by.bsu.model;
 
-import java.util.Map;
-
-import com.carrotsearch.hppc.IntSet;
 import com.carrotsearch.hppc.LongSet;
+import com.carrotsearch.hppc.cursors.LongCursor;
+
+import java.util.Arrays;
 
 /**
  * Created by c5239200 on 7/13/17.
  */
 public abstract class AbstractKMerDict {
 
-    /**
-     *  how each possible l-mer in sample store Set of sequences that contain given l-mer
-     *  14323123 -> set(1, 4, 6, 7,...)
-     *  36321322 -> set(1, 3, 6, 9,...)
-     */
-    public Map<Long, IntSet> hashToSequencesMap;
-
     /**
      * Contains only all possible l-mers in sample
      */
@@ -52,4 +45,79 @@ public abstract class AbstractKMerDict {
      * Sample's name
      */
     public String sampleName;
+    /**
+     * Sample profile, it is filled only if builder was asked to count it while building dictionary
+     */
+    public double[][] profile;
+    /**
+     * For each sequence from sample stores positions of its chunks sorted by the number of sequences
+     * that have the same chunk, rarest first. Order of equal sizes is by position
+     */
+    public short[][] chunksOrder;
+    /**
+     * Summary of chunks hashes to rule out pairs of samples quickly
+     */
+    public SampleSketch sketch;
+
+    /**
+     * Checks if at least need chunk positions of this dictionary can have a hash of other one, on the same position
+     * if samePosition is true or anywhere in other sample's sequences otherwise. Equal chunks are screened
+     * by sketches first, chunks that can be anywhere are not, as l-mers of whole sample don't fit in a small summary.
+     * The rest pairs are checked by sets of hashes if both dictionaries have them (restored ones don't)
+     */
+    public boolean mayShare(AbstractKMerDict other, int need, boolean samePosition) {
+        if (samePosition && !sketch.mayShare(other.sketch, need)) {
+            return false;
+        }
+        if (wholeSampleChunksHashesList == null || other.wholeSampleChunksHashesList == null || other.allHashesSet == null) {
+            return true;
+        }
+        int shared = 0;
+        for (int i = 0; i < wholeSampleChunksHashesList.length && shared < need; i++) {
+            if (shared + wholeSampleChunksHashesList.length - i < need) {
+                return false;
+            }
+            LongSet otherHashes = samePosition
+                    ? (i < other.wholeSampleChunksHashesList.length ? other.wholeSampleChunksHashesList[i] : null)
+                    : other.allHashesSet;
+            if (otherHashes == null) {
+                continue;
+            }
+            for (LongCursor hash : wholeSampleChunksHashesList[i]) {
+                if (otherHashes.contains(hash.value)) {
+                    shared++;
+                    break;
+                }
+            }
+        }
+        return shared >= need;
+    }
+
+    /**
+     * Returns the number of sequences that have chunk with given hash on given position, 0 if there are no such
+     */
+    public abstract int sequencesWithChunk(int position, long hash);
+
+    /**
+     * Writes positions of chunks of sequence seq from this dictionary that occur in other dictionary into order,
+     * sorted by the number of sequences of other dictionary with them, rarest first
+     *
+     * @param scratch buffer of at least chunksCount values
+     * @return the number of written positions
+     */
+    public int sortChunks(int seq, AbstractKMerDict other, long[] scratch, short[] order) {
+        int count = 0;
+        for (int i = 0; i < chunksCount; i++) {
+            int size = other.sequencesWithChunk(i, sequenceChunksHashesList[seq][i]);
+            if (size > 0) {
+                //position in low bits keeps order of equal sizes
+                scratch[count++] = ((long) size << 16) | i;
+            }
+        }
+        Arrays.sort(scratch, 0, count);
+        for (int i = 0; i < count; i++) {
+            order[i] = (short) scratch[i];
+        }
+        return count;
+    }
 }
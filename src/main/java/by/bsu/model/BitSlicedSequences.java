@@ -0,0 +1,138 @@
+package by.bsu.model;
+
+import by.bsu.util.AlgorithmUtils;
+
+import java.util.Arrays;
+
+/**
+ * Column-major copy of packed sequences for comparing one sequence with many others at once.
+ * Sequences are split into blocks of 64, sequence i is lane i % 64 of block i / 64.
+ * Positions where all sequences of the block have the same symbol are stored once as packed words,
+ * so they are compared with the query by one popcount for the whole block. Each other (varying) position takes
+ * three words: low bits of 2-bit codes of all lanes, high bits of codes and masks, so one word operation compares
+ * a symbol of the query with the same position of 64 sequences, see {@link by.bsu.distance.BitSlicedHammingDistance}.
+ */
+public class BitSlicedSequences {
+
+    public static final int LANES = 64;
+    public static final int WORDS_PER_POSITION = 3;
+
+    /**
+     * The number of sequences
+     */
+    public int size;
+    public int maxLength;
+    public int wordsPerSequence;
+    /**
+     * Varying positions of each block in increasing order
+     */
+    public int[][] varying;
+    /**
+     * Words of block b, varying position varying[b][v] takes blocks[b][3 * v], blocks[b][3 * v + 1]
+     * and blocks[b][3 * v + 2] for low bits, high bits and mask. Lanes after the last sequence are zero
+     */
+    public long[][] blocks;
+    /**
+     * Symbols of positions that are the same in the whole block, packed as in {@link PackedSequences}, with zero lanes
+     * on varying positions
+     */
+    public long[][] sameWords;
+    public long[][] sameMasks;
+    /**
+     * Both bits of the lane are set for each position that is the same in the whole block
+     */
+    public long[][] samePositions;
+
+    /**
+     * Transposes packed sequences, blocks are split between given threads
+     */
+    public static BitSlicedSequences of(PackedSequences packed, int threads) {
+        BitSlicedSequences result = new BitSlicedSequences();
+        result.size = packed.size;
+        result.maxLength = packed.maxLength;
+        result.wordsPerSequence = packed.wordsPerSequence;
+        int blocksCount = (packed.size + LANES - 1) / LANES;
+        result.varying = new int[blocksCount][];
+        result.blocks = new long[blocksCount][];
+        result.sameWords = new long[blocksCount][];
+        result.sameMasks = new long[blocksCount][];
+        result.samePositions = new long[blocksCount][];
+        int shards = Math.max(1, Math.min(threads, blocksCount));
+        AlgorithmUtils.runShards(threads, shards, shard -> {
+            int to = AlgorithmUtils.shardStart(shard + 1, shards, blocksCount);
+            for (int b = AlgorithmUtils.shardStart(shard, shards, blocksCount); b < to; b++) {
+                result.transpose(packed, b);
+            }
+        });
+        return result;
+    }
+
+    private void transpose(PackedSequences packed, int block) {
+        long[] columns = new long[Math.multiplyExact(maxLength, WORDS_PER_POSITION)];
+        int first = block * LANES;
+        int end = Math.min(size, first + LANES);
+        for (int i = first; i < end; i++) {
+            long lane = 1L << (i % LANES);
+            int offset = i * wordsPerSequence;
+            long[] mask = packed.masks[i];
+            for (int w = 0, pos = 0; w < wordsPerSequence; w++) {
+                long word = packed.words[offset + w];
+                long maskWord = mask == null ? 0 : mask[w];
+                int to = Math.min(maxLength, pos + PackedSequences.BASES_PER_WORD);
+                for (; pos < to; pos++, word >>>= 2, maskWord >>>= 2) {
+                    int column = pos * WORDS_PER_POSITION;
+                    if ((word & 1) != 0) {
+                        columns[column] |= lane;
+                    }
+                    if ((word & 2) != 0) {
+                        columns[column + 1] |= lane;
+                    }
+                    if ((maskWord & 1) != 0) {
+                        columns[column + 2] |= lane;
+                    }
+                }
+            }
+        }
+        long lanes = end - first == LANES ? -1L : (1L << (end - first)) - 1;
+        int[] positions = new int[maxLength];
+        int count = 0;
+        long[] words = new long[wordsPerSequence];
+        long[] masks = new long[wordsPerSequence];
+        long[] same = new long[wordsPerSequence];
+        for (int pos = 0; pos < maxLength; pos++) {
+            int column = pos * WORDS_PER_POSITION;
+            if (isSame(columns[column], lanes) && isSame(columns[column + 1], lanes) && isSame(columns[column + 2], lanes)) {
+                int w = pos / PackedSequences.BASES_PER_WORD;
+                int shift = (pos % PackedSequences.BASES_PER_WORD) * 2;
+                long code = (columns[column] & 1) | (columns[column + 1] & 1) << 1;
+                words[w] |= code << shift;
+                masks[w] |= (columns[column + 2] & 1) * 3 << shift;
+                same[w] |= 3L << shift;
+            } else {
+                positions[count] = pos;
+                System.arraycopy(columns, column, columns, count * WORDS_PER_POSITION, WORDS_PER_POSITION);
+                count++;
+            }
+        }
+        varying[block] = Arrays.copyOf(positions, count);
+        blocks[block] = Arrays.copyOf(columns, count * WORDS_PER_POSITION);
+        sameWords[block] = words;
+        sameMasks[block] = masks;
+        samePositions[block] = same;
+    }
+
+    private static boolean isSame(long column, long lanes) {
+        return column == 0 || column == lanes;
+    }
+
+    /**
+     * Approximate size of stored data in bytes
+     */
+    public long bytes() {
+        long result = 0;
+        for (int b = 0; b < blocks.length; b++) {
+            result += 8L * blocks[b].length + 4L * varying[b].length + 24L * wordsPerSequence;
+        }
+        return result;
+    }
+}
@@ -0,0 +1,63 @@
+package by.bsu.model;
+
+import com.carrotsearch.hppc.IntArrayList;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Sample with collapsed exact duplicates. Each distinct sequence (haplotype) is kept once,
+ * original indexes of its copies are stored separately, so found pairs can be expanded back
+ */
+public class Haplotypes {
+
+    /**
+     * Sample of unique sequences in order of their first appearance
+     */
+    public Sample sample;
+    /**
+     * copies[h] is sorted list of original indexes of haplotype h, copies[h][0] is its representative
+     */
+    public int[][] copies;
+    /**
+     * The number of sequences before collapsing
+     */
+    public int originalSize;
+
+    public static Haplotypes collapse(Sample sample) {
+        Map<String, Integer> haplotypeIndex = new HashMap<>(sample.sequences.length * 2);
+        List<String> unique = new ArrayList<>();
+        List<IntArrayList> copies = new ArrayList<>();
+        for (int seq = 0; seq < sample.sequences.length; seq++) {
+            Integer h = haplotypeIndex.putIfAbsent(sample.sequences[seq], unique.size());
+            if (h == null) {
+                unique.add(sample.sequences[seq]);
+                copies.add(new IntArrayList(1));
+                h = unique.size() - 1;
+            }
+            copies.get(h).add(seq);
+        }
+        Haplotypes result = new Haplotypes();
+        result.sample = new Sample(sample.name, unique.toArray(new String[0]));
+        result.copies = new int[copies.size()][];
+        for (int h = 0; h < copies.size(); h++) {
+            result.copies[h] = copies.get(h).toArray();
+        }
+        result.originalSize = sample.sequences.length;
+        return result;
+    }
+
+    public int size() {
+        return copies.length;
+    }
+
+    public int representative(int h) {
+        return copies[h][0];
+    }
+
+    public int count(int h) {
+        return copies[h].length;
+    }
+}
@@ -0,0 +1,85 @@
+package by.bsu.model;
+
+import java.util.Arrays;
+
+/**
+ * Frozen inverted index from l-mer hash to sorted list of sequences that contain this l-mer (CSR layout).
+ * Sequences of hash hashes[i] are postings[offsets[i]], ..., postings[offsets[i + 1] - 1]
+ * <pre>
+ *  hashes   = [14323123, 36321322, ...]
+ *  offsets  = [0, 4, 9, ...]
+ *  postings = [1, 4, 6, 7, 1, 3, 6, 9, 12, ...]
+ * </pre>
+ */
+public class InvertedIndex {
+
+    /**
+     * Sorted unique hashes
+     */
+    public long[] hashes;
+    public int[] offsets;
+    public int[] postings;
+
+    public InvertedIndex(long[] hashes, int[] offsets, int[] postings) {
+        this.hashes = hashes;
+        this.offsets = offsets;
+        this.postings = postings;
+    }
+
+    /**
+     * Returns position of hash in index or -1 if there is no such hash
+     */
+    public int find(long hash) {
+        int i = Arrays.binarySearch(hashes, hash);
+        return i < 0 ? -1 : i;
+    }
+
+    public boolean containsKey(long hash) {
+        return find(hash) != -1;
+    }
+
+    /**
+     * Returns the number of sequences with hash on given position
+     */
+    public int size(int i) {
+        return offsets[i + 1] - offsets[i];
+    }
+
+    public int start(int i) {
+        return offsets[i];
+    }
+
+    public int end(int i) {
+        return offsets[i + 1];
+    }
+
+    /**
+     * Checks if sequence is in postings of hash on given position
+     */
+    public boolean contains(int i, int sequence) {
+        return Arrays.binarySearch(postings, offsets[i], offsets[i + 1], sequence) >= 0;
+    }
+
+    /**
+     * Adds 1 to counters[s] for each sequence s with hash on given position that is greater than from.
+     * Sequences whose counter was 0 are appended to touched, see {@link PostingList#increment(int[], int, int[], int)}
+     *
+     * @return the number of touched sequences after the call
+     */
+    public int increment(int i, int[] counters, int from, int[] touched, int touchedCount) {
+        int start = Arrays.binarySearch(postings, offsets[i], offsets[i + 1], from + 1);
+        for (int p = start < 0 ? -start - 1 : start; p < offsets[i + 1]; p++) {
+            if (counters[postings[p]]++ == 0) {
+                touched[touchedCount++] = postings[p];
+            }
+        }
+        return touchedCount;
+    }
+
+    /**
+     * The number of distinct hashes
+     */
+    public int size() {
+        return hashes.length;
+    }
+}
@@ -1,14 +1,20 @@
 package by.bsu.model;
 
-import com.carrotsearch.hppc.*;
-
-import java.util.HashMap;
-import java.util.Map;
-
 /**
  * Data container to store hashes of samples k-mers
  */
 public class KMerDict extends AbstractKMerDict{
-    
-    
+
+    /**
+     *  how each possible l-mer in sample store sorted list of sequences that contain given l-mer
+     *  14323123 -> [1, 4, 6, 7,...]
+     *  36321322 -> [1, 3, 6, 9,...]
+     */
+    public InvertedIndex hashToSequencesIndex;
+
+    @Override
+    public int sequencesWithChunk(int position, long hash) {
+        int i = hashToSequencesIndex.find(hash);
+        return i == -1 ? 0 : hashToSequencesIndex.size(i);
+    }
 }
@@ -0,0 +1,474 @@
+package by.bsu.model;
+
+import by.bsu.util.Utils;
+
+import java.util.Arrays;
+
+/**
+ * Compact storage of sample sequences. Each of A, C, G, T takes 2 bits of a long word (32 bases per word),
+ * sequence i occupies words [i * wordsPerSequence, (i + 1) * wordsPerSequence) and all sequences are
+ * padded to maxLength.
+ * Any other symbol (N, gap, padding) is marked in a side mask, that is allocated only for sequences that need it.
+ * Symbols that don't have their own masked code (IUPAC codes and so on) are kept in a per-sequence list of exceptions,
+ * so packing is lossless.
+ */
+public class PackedSequences {
+
+    public static final int BASES_PER_WORD = 32;
+
+    /**
+     * Symbols that are stored under the mask, lane value is the index in this string.
+     * '%' is the padding symbol (see {@link Utils#stringsForHamming(String[])}), anything else is stored
+     * under the mask with OTHER_CODE and kept in {@link #otherSymbols}
+     */
+    private static final String MASKED_SYMBOLS = "-N%";
+    private static final int PADDING_CODE = 2;
+    private static final int OTHER_CODE = 3;
+
+    /**
+     * The number of sequences
+     */
+    public int size;
+    /**
+     * Length of the longest sequence, shorter ones are padded to it
+     */
+    public int maxLength;
+    public int wordsPerSequence;
+    /**
+     * Real (not padded) length of each sequence
+     */
+    public int[] lengths;
+    /**
+     * 2-bit codes of all sequences, A -> 0, C -> 1, G -> 2, T -> 3. Masked positions store the index in MASKED_SYMBOLS
+     */
+    public long[] words;
+    /**
+     * masks[i] is null if sequence i contains only A, C, G, T and has maxLength length.
+     * Otherwise it has wordsPerSequence words where both bits of the lane are set for each masked position
+     */
+    public long[][] masks;
+    /**
+     * otherPositions[i] is null if sequence i has no symbols with OTHER_CODE. Otherwise it has their positions
+     * in increasing order and otherSymbols[i] has the symbols. Lanes of such symbols are equal whatever the symbols are,
+     * so comparisons of words should check these lists when both sequences have them
+     */
+    public int[][] otherPositions;
+    public char[][] otherSymbols;
+
+    /**
+     * The number of other symbols of sequence that is being packed, see {@link #begin(int, int)}
+     */
+    private int others;
+
+    public PackedSequences(int size, int maxLength) {
+        this.size = size;
+        this.maxLength = maxLength;
+        this.wordsPerSequence = (maxLength + BASES_PER_WORD - 1) / BASES_PER_WORD;
+        this.lengths = new int[size];
+        this.words = new long[Math.multiplyExact(size, wordsPerSequence)];
+        this.masks = new long[size][];
+        this.otherPositions = new int[size][];
+        this.otherSymbols = new char[size][];
+    }
+
+    public PackedSequences(String[] sequences) {
+        this(sequences.length, maxLength(sequences));
+        for (int i = 0; i < sequences.length; i++) {
+            set(i, sequences[i]);
+        }
+    }
+
+    /**
+     * Packs given sequence to position i
+     */
+    public void set(int i, CharSequence sequence) {
+        int length = sequence.length();
+        begin(i, length);
+        for (int pos = 0; pos < length; pos++) {
+            put(i, pos, sequence.charAt(pos));
+        }
+        end(i);
+    }
+
+    /**
+     * Starts packing sequence of given length to position i, so it can be written symbol by symbol without a string.
+     * Symbols are written by {@link #put(int, int, char)} in increasing or decreasing order of positions,
+     * then {@link #end(int)} is called. Only one sequence can be packed at a time
+     */
+    public void begin(int i, int length) {
+        if (length > maxLength) {
+            throw new IllegalArgumentException("Sequence is longer than " + maxLength);
+        }
+        lengths[i] = length;
+        int offset = i * wordsPerSequence;
+        masks[i] = null;
+        otherPositions[i] = null;
+        otherSymbols[i] = null;
+        others = 0;
+        for (int w = 0; w < wordsPerSequence; w++) {
+            words[offset + w] = 0;
+        }
+        for (int pos = length; pos < maxLength; pos++) {
+            words[offset + pos / BASES_PER_WORD] |= ((long) PADDING_CODE) << shift(pos);
+            mask(i, pos);
+        }
+    }
+
+    /**
+     * Writes symbol on given position of sequence i, see {@link #begin(int, int)}
+     */
+    public void put(int i, int pos, char c) {
+        int code = Utils.convertLetterToDigit(c);
+        if (code == -1) {
+            code = MASKED_SYMBOLS.indexOf(c);
+            if (code == -1) {
+                code = OTHER_CODE;
+                addOther(i, pos, c);
+            }
+            mask(i, pos);
+        }
+        words[i * wordsPerSequence + pos / BASES_PER_WORD] |= ((long) code) << shift(pos);
+    }
+
+    /**
+     * Finishes packing of sequence i, see {@link #begin(int, int)}
+     */
+    public void end(int i) {
+        if (otherPositions[i] == null) {
+            return;
+        }
+        int[] positions = Arrays.copyOf(otherPositions[i], others);
+        char[] symbols = Arrays.copyOf(otherSymbols[i], others);
+        //symbols of reversed sequence come from the last position
+        if (positions[0] > positions[others - 1]) {
+            for (int a = 0, b = others - 1; a < b; a++, b--) {
+                int position = positions[a];
+                positions[a] = positions[b];
+                positions[b] = position;
+                char symbol = symbols[a];
+                symbols[a] = symbols[b];
+                symbols[b] = symbol;
+            }
+        }
+        otherPositions[i] = positions;
+        otherSymbols[i] = symbols;
+    }
+
+    /**
+     * Packs given sequences after the stored ones. If some of them is longer than maxLength,
+     * stored sequences are moved to wider layout and padded to the new maxLength
+     */
+    public void append(String[] sequences) {
+        int oldSize = size;
+        resize(oldSize + sequences.length, Math.max(maxLength, maxLength(sequences)));
+        for (int i = 0; i < sequences.length; i++) {
+            set(oldSize + i, sequences[i]);
+        }
+    }
+
+    /**
+     * Pads all sequences to given length as {@link Utils#stringsForHamming(String[], int)} does for strings,
+     * padding becomes part of sequences, so all of them have this length
+     *
+     * @throws IllegalArgumentException if some sequence is longer
+     */
+    public void pad(int length) {
+        if (length < maxLength) {
+            throw new IllegalArgumentException("Sequence is longer than " + length);
+        }
+        resize(size, length);
+        Arrays.fill(lengths, length);
+    }
+
+    /**
+     * Moves stored sequences to layout of given size and maxLength, they are padded to the new maxLength
+     */
+    private void resize(int newSize, int newMaxLength) {
+        int oldSize = size;
+        int oldMaxLength = maxLength;
+        int oldWords = wordsPerSequence;
+        int newWords = (newMaxLength + BASES_PER_WORD - 1) / BASES_PER_WORD;
+        long[] newPacked = new long[Math.multiplyExact(newSize, newWords)];
+        for (int i = 0; i < oldSize; i++) {
+            System.arraycopy(words, i * oldWords, newPacked, i * newWords, oldWords);
+        }
+        words = newPacked;
+        lengths = Arrays.copyOf(lengths, newSize);
+        masks = Arrays.copyOf(masks, newSize);
+        otherPositions = Arrays.copyOf(otherPositions, newSize);
+        otherSymbols = Arrays.copyOf(otherSymbols, newSize);
+        size = newSize;
+        maxLength = newMaxLength;
+        wordsPerSequence = newWords;
+        if (newWords != oldWords) {
+            for (int i = 0; i < oldSize; i++) {
+                if (masks[i] != null) {
+                    masks[i] = Arrays.copyOf(masks[i], newWords);
+                }
+            }
+        }
+        for (int i = 0; i < oldSize && newMaxLength > oldMaxLength; i++) {
+            for (int pos = oldMaxLength; pos < newMaxLength; pos++) {
+                words[i * newWords + pos / BASES_PER_WORD] |= ((long) PADDING_CODE) << shift(pos);
+                mask(i, pos);
+            }
+        }
+    }
+
+    /**
+     * Returns positions where sequences of given sets don't have the same symbol, only these positions
+     * can differ in Hamming distance. Positions of symbols from {@link #otherSymbols} are always returned.
+     * All sets should be padded to the same length
+     *
+     * @throws IllegalArgumentException if sets have different maxLength
+     */
+    public static int[] polymorphicColumns(PackedSequences... all) {
+        PackedSequences first = all[0];
+        int words = first.wordsPerSequence;
+        //the first sequence is the reference, any lane that differs from it in code or mask is polymorphic
+        long[] reference = Arrays.copyOf(first.words, words);
+        long[] referenceMask = first.size == 0 || first.masks[0] == null ? new long[words] : first.masks[0];
+        long[] diff = new long[words];
+        for (PackedSequences packed : all) {
+            if (packed.maxLength != first.maxLength) {
+                throw new IllegalArgumentException("Sequences must have the same length");
+            }
+            for (int i = 0; i < packed.size; i++) {
+                int offset = i * words;
+                long[] mask = packed.masks[i];
+                for (int w = 0; w < words; w++) {
+                    diff[w] |= (packed.words[offset + w] ^ reference[w]) | ((mask == null ? 0 : mask[w]) ^ referenceMask[w]);
+                }
+                //equal lanes can still hold different symbols
+                if (packed.otherPositions[i] != null) {
+                    for (int pos : packed.otherPositions[i]) {
+                        diff[pos / BASES_PER_WORD] |= 1L << shift(pos);
+                    }
+                }
+            }
+        }
+        int count = 0;
+        int[] result = new int[first.maxLength];
+        for (int pos = 0; pos < first.maxLength; pos++) {
+            if ((diff[pos / BASES_PER_WORD] >>> shift(pos) & 3) != 0) {
+                result[count++] = pos;
+            }
+        }
+        return Arrays.copyOf(result, count);
+    }
+
+    /**
+     * Returns copy of sequences that has only given positions, codes, masks and other symbols of positions are copied
+     * as they are, so Hamming distance between projected sequences is the same if other positions are equal
+     * in all sequences
+     *
+     * @see #polymorphicColumns(PackedSequences...)
+     */
+    public PackedSequences project(int[] columns) {
+        PackedSequences result = new PackedSequences(size, columns.length);
+        int resultWords = result.wordsPerSequence;
+        for (int i = 0; i < size; i++) {
+            result.lengths[i] = columns.length;
+            int offset = i * wordsPerSequence;
+            long[] mask = masks[i];
+            for (int c = 0; c < columns.length; c++) {
+                int pos = columns[c];
+                long code = words[offset + pos / BASES_PER_WORD] >>> shift(pos) & 3;
+                result.words[i * resultWords + c / BASES_PER_WORD] |= code << shift(c);
+                if (mask != null && (mask[pos / BASES_PER_WORD] >>> shift(pos) & 3) != 0) {
+                    result.mask(i, c);
+                }
+            }
+            if (otherPositions[i] != null) {
+                result.projectOthers(i, this, columns);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns digit of symbol in {@link Utils#DEFAULT_ALPHABET} or -1 if it is masked,
+     * so it is the same value as {@link Utils#convertLetterToDigit(char)} returns
+     */
+    public int digit(int i, int pos) {
+        if (isMasked(i, pos)) {
+            return -1;
+        }
+        return (int) (words[i * wordsPerSequence + pos / BASES_PER_WORD] >>> shift(pos)) & 3;
+    }
+
+    /**
+     * Returns symbol on given position, padding is returned as '%'
+     */
+    public char charAt(int i, int pos) {
+        int code = (int) (words[i * wordsPerSequence + pos / BASES_PER_WORD] >>> shift(pos)) & 3;
+        if (!isMasked(i, pos)) {
+            return Utils.DEFAULT_ALPHABET.charAt(code);
+        }
+        return code == OTHER_CODE ? otherSymbols[i][Arrays.binarySearch(otherPositions[i], pos)] : MASKED_SYMBOLS.charAt(code);
+    }
+
+    /**
+     * Returns 2-bit code of the lane with bit 2 set if position is masked, so symbols are equal
+     * exactly when lanes of packed sequences are equal. All symbols of {@link #otherSymbols} have the same value,
+     * see {@link #isOther(int, int)}
+     */
+    public int symbol(int i, int pos) {
+        int code = (int) (words[i * wordsPerSequence + pos / BASES_PER_WORD] >>> shift(pos)) & 3;
+        return isMasked(i, pos) ? code | 4 : code;
+    }
+
+    public boolean isMasked(int i, int pos) {
+        long[] mask = masks[i];
+        return mask != null && (mask[pos / BASES_PER_WORD] >>> shift(pos) & 1) != 0;
+    }
+
+    /**
+     * Returns true if symbol on given position is stored in {@link #otherSymbols}
+     */
+    public boolean isOther(int i, int pos) {
+        return otherPositions[i] != null && Arrays.binarySearch(otherPositions[i], pos) >= 0;
+    }
+
+    /**
+     * The same hash as {@link Utils#getHashValue(int, int, String)} calculates for the unpacked sequence
+     */
+    public long hash(int i, int position, int l) {
+        long hashValue = 0;
+        for (int j = 0; j < l; j++) {
+            hashValue *= 4;
+            hashValue += digit(i, position + j);
+        }
+        return hashValue;
+    }
+
+    /**
+     * Returns view on sequence i without padding that decodes symbols on the fly
+     */
+    public CharSequence sequence(int i) {
+        return new SequenceView(i, 0, lengths[i]);
+    }
+
+    /**
+     * Returns view on sequence i padded to maxLength, as in {@link Sample#forHamming()}
+     */
+    public CharSequence sequenceForHamming(int i) {
+        return new SequenceView(i, 0, maxLength);
+    }
+
+    public String toString(int i) {
+        return sequence(i).toString();
+    }
+
+    /**
+     * Approximate size of stored data in bytes
+     */
+    public long bytes() {
+        long result = 8L * words.length + 4L * lengths.length;
+        for (long[] mask : masks) {
+            if (mask != null) {
+                result += 8L * mask.length;
+            }
+        }
+        for (int[] positions : otherPositions) {
+            if (positions != null) {
+                result += 6L * positions.length;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Copies other symbols of sequence i of source that are on given positions, positions are renumbered
+     * as in {@link #project(int[])}
+     */
+    private void projectOthers(int i, PackedSequences source, int[] columns) {
+        int[] positions = source.otherPositions[i];
+        int[] resultPositions = new int[positions.length];
+        char[] resultSymbols = new char[positions.length];
+        int count = 0;
+        for (int o = 0, c = 0; o < positions.length && c < columns.length; ) {
+            if (positions[o] < columns[c]) {
+                o++;
+            } else if (positions[o] > columns[c]) {
+                c++;
+            } else {
+                resultPositions[count] = c;
+                resultSymbols[count++] = source.otherSymbols[i][o];
+                o++;
+                c++;
+            }
+        }
+        if (count > 0) {
+            otherPositions[i] = Arrays.copyOf(resultPositions, count);
+            otherSymbols[i] = Arrays.copyOf(resultSymbols, count);
+        }
+    }
+
+    private void addOther(int i, int pos, char c) {
+        if (otherPositions[i] == null) {
+            otherPositions[i] = new int[4];
+            otherSymbols[i] = new char[4];
+        } else if (others == otherPositions[i].length) {
+            otherPositions[i] = Arrays.copyOf(otherPositions[i], others * 2);
+            otherSymbols[i] = Arrays.copyOf(otherSymbols[i], others * 2);
+        }
+        otherPositions[i][others] = pos;
+        otherSymbols[i][others++] = c;
+    }
+
+    private void mask(int i, int pos) {
+        if (masks[i] == null) {
+            masks[i] = new long[wordsPerSequence];
+        }
+        masks[i][pos / BASES_PER_WORD] |= 3L << shift(pos);
+    }
+
+    private static int shift(int pos) {
+        return (pos % BASES_PER_WORD) * 2;
+    }
+
+    private static int maxLength(String[] sequences) {
+        int max = 0;
+        for (String s : sequences) {
+            max = Math.max(max, s.length());
+        }
+        return max;
+    }
+
+    private class SequenceView implements CharSequence {
+        private final int i;
+        private final int start;
+        private final int end;
+
+        SequenceView(int i, int start, int end) {
+            this.i = i;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        public int length() {
+            return end - start;
+        }
+
+        @Override
+        public char charAt(int index) {
+            return PackedSequences.this.charAt(i, start + index);
+        }
+
+        @Override
+        public CharSequence subSequence(int from, int to) {
+            return new SequenceView(i, start + from, start + to);
+        }
+
+        @Override
+        public String toString() {
+            char[] result = new char[length()];
+            for (int j = 0; j < result.length; j++) {
+                result[j] = charAt(j);
+            }
+            return new String(result);
+        }
+    }
+}
@@ -0,0 +1,249 @@
+package by.bsu.model;
+
+import java.util.Arrays;
+
+/**
+ * Immutable sorted set of sequence indexes that picks representation by its density.
+ * Rare lists are stored as sorted int array. Frequent lists are stored as compressed bitmap in the manner of Roaring:
+ * values are split into containers by high 16 bits, and each container is either a sorted array of low 16 bits
+ * (up to 4096 values) or a bitmap of 65536 bits.
+ * So memory is proportional to the list size instead of the sample size and membership check for frequent lists is O(1).
+ */
+public class PostingList {
+
+    private static final int CONTAINER_BITS = 16;
+    private static final int LOW_MASK = (1 << CONTAINER_BITS) - 1;
+    private static final int ARRAY_CONTAINER_LIMIT = 4096;
+    private static final int BITMAP_WORDS = (1 << CONTAINER_BITS) / 64;
+
+    private final int size;
+    /**
+     * Sorted values of sparse list, null for compressed bitmap
+     */
+    private final int[] values;
+    /**
+     * High 16 bits of each container, container i is arrayContainers[i] or bitmapContainers[i]
+     */
+    private final char[] keys;
+    private final char[][] arrayContainers;
+    private final long[][] bitmapContainers;
+
+    private PostingList(int[] values) {
+        this.size = values.length;
+        this.values = values;
+        this.keys = null;
+        this.arrayContainers = null;
+        this.bitmapContainers = null;
+    }
+
+    private PostingList(int size, char[] keys, char[][] arrayContainers, long[][] bitmapContainers) {
+        this.size = size;
+        this.values = null;
+        this.keys = keys;
+        this.arrayContainers = arrayContainers;
+        this.bitmapContainers = bitmapContainers;
+    }
+
+    /**
+     * Creates list for sorted unique values from [0, universe). Int array is used while it is smaller than
+     * plain bitmap of the universe would be
+     */
+    public static PostingList of(int[] sorted, int length, int universe) {
+        return of(sorted, 0, length, universe);
+    }
+
+    /**
+     * Creates list for sorted unique values sorted[from], ..., sorted[to - 1], see {@link #of(int[], int, int)}
+     */
+    public static PostingList of(int[] sorted, int from, int to, int universe) {
+        int length = to - from;
+        if ((long) length * 32 <= universe) {
+            return new PostingList(Arrays.copyOfRange(sorted, from, to));
+        }
+        int containers = 0;
+        for (int i = from; i < to; i++) {
+            if (i == from || sorted[i] >>> CONTAINER_BITS != sorted[i - 1] >>> CONTAINER_BITS) {
+                containers++;
+            }
+        }
+        char[] keys = new char[containers];
+        char[][] arrays = new char[containers][];
+        long[][] bitmaps = new long[containers][];
+        int start = from;
+        for (int c = 0; c < containers; c++) {
+            int key = sorted[start] >>> CONTAINER_BITS;
+            int end = start;
+            while (end < to && sorted[end] >>> CONTAINER_BITS == key) {
+                end++;
+            }
+            keys[c] = (char) key;
+            if (end - start <= ARRAY_CONTAINER_LIMIT) {
+                char[] array = new char[end - start];
+                for (int i = start; i < end; i++) {
+                    array[i - start] = (char) (sorted[i] & LOW_MASK);
+                }
+                arrays[c] = array;
+            } else {
+                long[] bitmap = new long[BITMAP_WORDS];
+                for (int i = start; i < end; i++) {
+                    int low = sorted[i] & LOW_MASK;
+                    bitmap[low >>> 6] |= 1L << low;
+                }
+                bitmaps[c] = bitmap;
+            }
+            start = end;
+        }
+        return new PostingList(length, keys, arrays, bitmaps);
+    }
+
+    public static PostingList of(int[] sorted, int universe) {
+        return of(sorted, sorted.length, universe);
+    }
+
+    /**
+     * Returns new list with values of this one and given sorted values, which should be greater than values of this one.
+     * Representation is picked again for the new universe
+     */
+    public PostingList append(int[] sorted, int length, int universe) {
+        int[] result = Arrays.copyOf(toArray(), size + length);
+        System.arraycopy(sorted, 0, result, size, length);
+        return of(result, universe);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean contains(int value) {
+        if (values != null) {
+            return Arrays.binarySearch(values, value) >= 0;
+        }
+        int c = container(value >>> CONTAINER_BITS);
+        if (c < 0) {
+            return false;
+        }
+        int low = value & LOW_MASK;
+        if (bitmapContainers[c] != null) {
+            return (bitmapContainers[c][low >>> 6] & (1L << low)) != 0;
+        }
+        return Arrays.binarySearch(arrayContainers[c], (char) low) >= 0;
+    }
+
+    /**
+     * Adds 1 to counters[v] for each value v of the list that is greater than from.
+     * Values whose counter was 0 are appended to touched, so counters can be cleared without scanning the whole array
+     *
+     * @return the number of touched values after the call
+     */
+    public int increment(int[] counters, int from, int[] touched, int touchedCount) {
+        if (values != null) {
+            int start = Arrays.binarySearch(values, from + 1);
+            for (int i = start < 0 ? -start - 1 : start; i < values.length; i++) {
+                if (counters[values[i]]++ == 0) {
+                    touched[touchedCount++] = values[i];
+                }
+            }
+            return touchedCount;
+        }
+        for (int c = 0; c < keys.length; c++) {
+            int base = keys[c] << CONTAINER_BITS;
+            if (base + LOW_MASK <= from) {
+                continue;
+            }
+            if (bitmapContainers[c] != null) {
+                long[] bitmap = bitmapContainers[c];
+                for (int w = 0; w < bitmap.length; w++) {
+                    long word = bitmap[w];
+                    while (word != 0) {
+                        int value = base + (w << 6) + Long.numberOfTrailingZeros(word);
+                        word &= word - 1;
+                        if (value > from && counters[value]++ == 0) {
+                            touched[touchedCount++] = value;
+                        }
+                    }
+                }
+            } else {
+                for (char low : arrayContainers[c]) {
+                    int value = base + low;
+                    if (value > from && counters[value]++ == 0) {
+                        touched[touchedCount++] = value;
+                    }
+                }
+            }
+        }
+        return touchedCount;
+    }
+
+    /**
+     * Keeps only candidates that are in the list
+     *
+     * @param candidates sorted candidates, result is written to the beginning of the same array
+     * @return the number of candidates left
+     */
+    public int intersect(int[] candidates, int count) {
+        int last = 0;
+        for (int i = 0; i < count; i++) {
+            if (contains(candidates[i])) {
+                candidates[last++] = candidates[i];
+            }
+        }
+        return last;
+    }
+
+    /**
+     * Returns the number of values that are in both lists
+     */
+    public int intersectionSize(PostingList other) {
+        PostingList small = size <= other.size ? this : other;
+        PostingList large = small == this ? other : this;
+        int result = 0;
+        for (int value : small.toArray()) {
+            if (large.contains(value)) {
+                result++;
+            }
+        }
+        return result;
+    }
+
+    public int[] toArray() {
+        if (values != null) {
+            return values.clone();
+        }
+        int[] result = new int[size];
+        int last = 0;
+        for (int c = 0; c < keys.length; c++) {
+            int base = keys[c] << CONTAINER_BITS;
+            if (bitmapContainers[c] != null) {
+                long[] bitmap = bitmapContainers[c];
+                for (int w = 0; w < bitmap.length; w++) {
+                    long word = bitmap[w];
+                    while (word != 0) {
+                        result[last++] = base + (w << 6) + Long.numberOfTrailingZeros(word);
+                        word &= word - 1;
+                    }
+                }
+            } else {
+                for (char low : arrayContainers[c]) {
+                    result[last++] = base + low;
+                }
+            }
+        }
+        return result;
+    }
+
+    private int container(int key) {
+        int l = 0;
+        int r = keys.length - 1;
+        while (l <= r) {
+            int m = (l + r) >>> 1;
+            if (keys[m] < key) {
+                l = m + 1;
+            } else if (keys[m] > key) {
+                r = m - 1;
+            } else {
+                return m;
+            }
+        }
+        return -1;
+    }
+}
@@ -2,42 +2,163 @@ package by.bsu.model;
 
 import by.bsu.util.Utils;
 
+import java.util.Arrays;
+
 /**
  * Data container to store sample data
  */
 public class Sample {
     public String name;
     /**
-     * Contains list of all sequences with digits instead of letters A -> 0, C -> 1, G -> 2, T -> 3
+     * Contains list of all sequences with digits instead of letters A -> 0, C -> 1, G -> 2, T -> 3.
+     * After {@link #pack()} it keeps its length but has no strings, use {@link #sequence(int)} to read them
      */
     public String[] sequences;
 
     /**
-     * In case we want faster performance avoiding String.charAt method
+     * In case we want faster performance avoiding String.charAt method, built on the first call of
+     * {@link #sequencesChars()}
      */
-    public char[][] sequencesChars;
+    private char[][] sequencesChars;
 
-    public String[] forHamming;
+    /**
+     * Sequences padded to one length, built on the first call of {@link #forHamming()}
+     */
+    private String[] forHamming;
 
     public String consensus;
 
+    /**
+     * Optional 2-bit packed copy of sequences, see {@link #pack()}
+     */
+    public PackedSequences packed;
+
+    /**
+     * Optional copy of packed sequences with polymorphic positions only, Hamming distance is verified on it
+     * if both samples have it. Samples compared with each other should be projected on the same positions,
+     * see {@link PackedSequences#polymorphicColumns(PackedSequences...)}
+     */
+    public PackedSequences projection;
+
+    /**
+     * Optional differences of sequences from consensus, Hamming distance is verified on them if both samples
+     * have differences from the same consensus, see {@link SparseDiffs#of(PackedSequences...)}
+     */
+    public SparseDiffs diffs;
+
     public Sample() {
     }
 
+    /**
+     * Only strings are kept, other representations are built when they are asked for, so sample that is packed
+     * right after reading never has them
+     */
     public Sample(String name, String[] sequences) {
         this.name = name;
         this.sequences = sequences;
-        this.forHamming = Utils.stringsForHamming(sequences);
-        this.sequencesChars = new char[sequences.length][];
-        for (int i = 0; i < sequences.length; i++) {
-            int l = sequences[i].length();
-            char[] tmp = new char[l];
-            sequences[i].getChars(0, l, tmp, 0);
-            sequencesChars[i] = tmp;
-        }
     }
     
     public Sample(String name, String[] sequences, int l){
         this(name, sequences);
     }
+
+    /**
+     * Sample that has packed sequences only, as after {@link #pack()}
+     */
+    public Sample(String name, PackedSequences packed) {
+        this.name = name;
+        this.sequences = new String[packed.size];
+        this.packed = packed;
+    }
+
+    /**
+     * Builds packed representation of sequences and releases strings and char arrays, which are not needed anymore.
+     * {@link #sequences} keeps its length, as in sample restored from snapshot. Packed sample is not changed
+     */
+    public synchronized void pack() {
+        if (packed != null) {
+            return;
+        }
+        packed = new PackedSequences(sequences);
+        sequences = new String[sequences.length];
+        forHamming = null;
+        sequencesChars = null;
+    }
+
+    /**
+     * Returns sequences padded to the length of the longest one, see {@link Utils#stringsForHamming(String[])}.
+     * Packed sample decodes them on every call and doesn't keep them
+     */
+    public synchronized String[] forHamming() {
+        if (packed != null) {
+            String[] result = new String[sequences.length];
+            for (int i = 0; i < result.length; i++) {
+                result[i] = packed.sequenceForHamming(i).toString();
+            }
+            return result;
+        }
+        if (forHamming == null) {
+            forHamming = Utils.stringsForHamming(sequences);
+        }
+        return forHamming;
+    }
+
+    /**
+     * Pads sequences to given length, see {@link Utils#stringsForHamming(String[], int)}.
+     * Packed sequences are padded in place
+     */
+    public synchronized void padForHamming(int length) {
+        if (packed != null) {
+            packed.pad(length);
+            return;
+        }
+        sequences = Utils.stringsForHamming(sequences, length);
+        forHamming = null;
+        sequencesChars = null;
+    }
+
+    /**
+     * Returns sequences as char arrays, they are built on the first call
+     */
+    public synchronized char[][] sequencesChars() {
+        if (sequencesChars == null) {
+            sequencesChars = new char[sequences.length][];
+            for (int i = 0; i < sequences.length; i++) {
+                sequencesChars[i] = sequence(i).toCharArray();
+            }
+        }
+        return sequencesChars;
+    }
+
+    /**
+     * Returns sequence i, it is decoded from packed sequences if strings are released
+     */
+    public String sequence(int i) {
+        return packed != null ? packed.toString(i) : sequences[i];
+    }
+
+    /**
+     * Returns length of sequence i without decoding it
+     */
+    public int length(int i) {
+        return packed != null ? packed.lengths[i] : sequences[i].length();
+    }
+
+    /**
+     * Adds sequences of other sample after sequences of this one, so they get numbers from the current size.
+     * Packed sample doesn't keep strings of new sequences, lazily built representations are built again
+     */
+    public synchronized void append(Sample other) {
+        int size = sequences.length;
+        String[] all = Arrays.copyOf(sequences, size + other.sequences.length);
+        forHamming = null;
+        sequencesChars = null;
+        if (packed != null) {
+            packed.append(other.sequences);
+            sequences = all;
+            return;
+        }
+        System.arraycopy(other.sequences, 0, all, size, other.sequences.length);
+        sequences = all;
+    }
 }
@@ -0,0 +1,82 @@
+package by.bsu.model;
+
+import com.carrotsearch.hppc.BitMixer;
+import com.carrotsearch.hppc.LongSet;
+import com.carrotsearch.hppc.cursors.LongCursor;
+
+/**
+ * Compact summary of sample chunks to rule out pairs of samples without their sets of hashes.
+ * Hashes of each chunk position are stored as a bitset of WORDS words with one bit per hash, whatever the number
+ * of hashes is. A hash that is on the same position in both samples sets the same bit in both bitsets, so bitsets
+ * of positions without common hashes intersect only by collisions and a pair is never ruled out wrongly.
+ * A position has few distinct chunks, so bitsets are sparse and positions of unrelated samples rarely intersect.
+ */
+public class SampleSketch {
+
+    public static final int WORDS = 4;
+    private static final int BITS_SHIFT = 64 - Integer.numberOfTrailingZeros(WORDS * 64);
+
+    /**
+     * Bitset of hashes of position i takes words [i * WORDS, (i + 1) * WORDS),
+     * see {@link AbstractKMerDict#wholeSampleChunksHashesList}
+     */
+    public long[] positions;
+
+    public static SampleSketch of(AbstractKMerDict dict) {
+        SampleSketch result = new SampleSketch();
+        result.positions = new long[dict.wholeSampleChunksHashesList.length * WORDS];
+        for (int i = 0; i < dict.wholeSampleChunksHashesList.length; i++) {
+            add(result.positions, i * WORDS, dict.wholeSampleChunksHashesList[i]);
+        }
+        return result;
+    }
+
+    /**
+     * Returns sketch of both sets of hashes, bitsets of each position are joined
+     */
+    public static SampleSketch union(SampleSketch a, SampleSketch b) {
+        SampleSketch result = new SampleSketch();
+        long[] large = a.positions.length >= b.positions.length ? a.positions : b.positions;
+        long[] small = large == a.positions ? b.positions : a.positions;
+        result.positions = large.clone();
+        for (int w = 0; w < small.length; w++) {
+            result.positions[w] |= small[w];
+        }
+        return result;
+    }
+
+    private static void add(long[] bits, int offset, LongSet hashes) {
+        for (LongCursor hash : hashes) {
+            int bit = (int) (BitMixer.mix64(hash.value) >>> BITS_SHIFT);
+            bits[offset + (bit >>> 6)] |= 1L << bit;
+        }
+    }
+
+    /**
+     * Checks if at least need chunk positions of this sample can have the same hash on the same position
+     * in other sample. Real number of such positions is never greater than the estimated one
+     */
+    public boolean mayShare(SampleSketch other, int need) {
+        int count = positions.length / WORDS;
+        int otherCount = other.positions.length / WORDS;
+        int shared = 0;
+        for (int i = 0; i < count && shared < need; i++) {
+            //the rest positions can't give enough
+            if (shared + count - i < need) {
+                return false;
+            }
+            if (i < otherCount && intersects(positions, other.positions, i * WORDS)) {
+                shared++;
+            }
+        }
+        return shared >= need;
+    }
+
+    private static boolean intersects(long[] a, long[] b, int offset) {
+        long common = 0;
+        for (int w = offset; w < offset + WORDS; w++) {
+            common |= a[w] & b[w];
+        }
+        return common != 0;
+    }
+}
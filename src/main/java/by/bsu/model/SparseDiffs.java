@@ -0,0 +1,112 @@
+package by.bsu.model;
+
+import java.util.Arrays;
+
+/**
+ * Sequences stored as differences from the consensus of one or several samples: for each sequence
+ * a sorted list of positions where its symbol is not the consensus one, together with the symbol.
+ * Consensus is counted on values {@link PackedSequences#symbol(int, int)} returns, symbols of differences are decoded
+ * ones. Symbols from {@link PackedSequences#otherSymbols} share one lane value, so they are always stored as differences.
+ * For samples with low diversity lists are short and Hamming distance is counted by merging two lists,
+ * see {@link by.bsu.distance.HammingDistance#apply(SparseDiffs, int, SparseDiffs, int, int)}.
+ * Sets of differences built together share the consensus and only such sets can be compared.
+ */
+public class SparseDiffs {
+
+    private static final int SYMBOLS = 8;
+    /**
+     * Value of masked lane with the code of other symbols
+     */
+    private static final int OTHER_SYMBOL = 7;
+
+    /**
+     * Consensus symbol of each position, it is the same array for all sets built together
+     */
+    public byte[] consensus;
+    /**
+     * Differences of sequence i are in [offsets[i], offsets[i + 1])
+     */
+    public int[] offsets;
+    public int[] positions;
+    public char[] symbols;
+
+    /**
+     * Builds differences of sequences of each set from the consensus of all of them.
+     * All sets should be padded to the same length
+     *
+     * @throws IllegalArgumentException if sets have different maxLength
+     */
+    public static SparseDiffs[] of(PackedSequences... all) {
+        int length = all[0].maxLength;
+        int[][] counts = new int[SYMBOLS][length];
+        for (PackedSequences packed : all) {
+            if (packed.maxLength != length) {
+                throw new IllegalArgumentException("Sequences must have the same length");
+            }
+            for (int i = 0; i < packed.size; i++) {
+                for (int pos = 0; pos < length; pos++) {
+                    counts[packed.symbol(i, pos)][pos]++;
+                }
+            }
+        }
+        byte[] consensus = new byte[length];
+        for (int pos = 0; pos < length; pos++) {
+            int max = 0;
+            for (int s = 1; s < SYMBOLS; s++) {
+                if (counts[s][pos] > counts[max][pos]) {
+                    max = s;
+                }
+            }
+            consensus[pos] = (byte) max;
+        }
+        SparseDiffs[] result = new SparseDiffs[all.length];
+        for (int p = 0; p < all.length; p++) {
+            result[p] = of(all[p], consensus);
+        }
+        return result;
+    }
+
+    private static SparseDiffs of(PackedSequences packed, byte[] consensus) {
+        SparseDiffs result = new SparseDiffs();
+        result.consensus = consensus;
+        result.offsets = new int[packed.size + 1];
+        int[] positions = new int[16];
+        char[] symbols = new char[16];
+        int count = 0;
+        for (int i = 0; i < packed.size; i++) {
+            for (int pos = 0; pos < packed.maxLength; pos++) {
+                int symbol = packed.symbol(i, pos);
+                if (symbol != consensus[pos] || symbol == OTHER_SYMBOL) {
+                    if (count == positions.length) {
+                        positions = Arrays.copyOf(positions, count * 2);
+                        symbols = Arrays.copyOf(symbols, count * 2);
+                    }
+                    positions[count] = pos;
+                    symbols[count++] = packed.charAt(i, pos);
+                }
+            }
+            result.offsets[i + 1] = count;
+        }
+        result.positions = Arrays.copyOf(positions, count);
+        result.symbols = Arrays.copyOf(symbols, count);
+        return result;
+    }
+
+    public int size() {
+        return offsets.length - 1;
+    }
+
+    /**
+     * Average number of differences per sequence
+     */
+    public double averageDifferences() {
+        return size() == 0 ? 0 : (double) positions.length / size();
+    }
+
+    /**
+     * Approximate size of stored data in bytes
+     */
+    public long bytes() {
+        return 4L * offsets.length + 6L * positions.length;
+    }
+}
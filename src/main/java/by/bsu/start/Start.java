@@ -2,24 +2,35 @@ package by.bsu.start;
 
 import by.bsu.algorithms.BruteForce;
 import by.bsu.algorithms.BruteForceHamming;
+import by.bsu.algorithms.LshMethod;
+import by.bsu.algorithms.MultiSignatureMethod;
 import by.bsu.algorithms.SignatureHammingMethod;
 import by.bsu.algorithms.SignatureMethod;
+import by.bsu.model.AbstractKMerDict;
+import by.bsu.model.Haplotypes;
 import by.bsu.model.KMerDict;
 import by.bsu.model.KMerDictChunks;
+import by.bsu.model.PackedSequences;
 import by.bsu.model.Sample;
+import by.bsu.model.SparseDiffs;
 import by.bsu.util.DataReader;
 import by.bsu.util.Utils;
 import by.bsu.util.builders.KMerDictBuilder;
 import by.bsu.util.builders.KMerDictChunksBuilder;
-import by.bsu.util.tasks.CallEditSignature;
-import by.bsu.util.tasks.CallHammingSignature;
+import by.bsu.util.snapshot.IndexSnapshot;
+import by.bsu.util.output.EdgeBuffer;
+import by.bsu.util.output.EdgeReader;
+import by.bsu.util.output.EdgeWriter;
 
+import java.io.BufferedWriter;
 import java.io.File;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -75,9 +86,30 @@ public class Start {
                 case "hamming-multi":
                     runMulti(input, k, l, false);
                     break;
+                case "edit-query":
+                    runQuery(input, k, l, true);
+                    break;
+                case "hamming-query":
+                    runQuery(input, k, l, false);
+                    break;
+                case "edit-lsh":
+                    runLsh(input, k, l, true);
+                    break;
+                case "hamming-lsh":
+                    runLsh(input, k, l, false);
+                    break;
                 case "brute-edit-single":
                     runBruteWithTime(k, input);
                     break;
+                case "brute-hamming-single":
+                    runBruteHammingWithTime(k, input);
+                    break;
+                case "brute-edit-multi":
+                    runBruteMulti(input, k, true);
+                    break;
+                case "brute-hamming-multi":
+                    runBruteMulti(input, k, false);
+                    break;
                 default:
                     helpOutput(settings.get("-m"), true);
             }
@@ -108,59 +140,243 @@ public class Start {
         System.out.println("-dir /usr/name/tmp/ -- folder with input. (cleaned_independent_264 is default value, except of bigData)");
         System.out.println("-in /usr/name/tmp/reads.fas -- input file(2snv/realigned/reads.fas is default for snv method)");
         System.out.println("-outDir /usr/name/tmp/ -- folder with output.");
+        System.out.println("-query /usr/name/tmp/new.fas -- query file or folder with one sample per file for edit-query and hamming-query methods. Its reads are compared with reference samples from -in (file or folder) only");
         System.out.println("-m bigData -- getMergedCluques one of predefined methods. Methods are: bigData, signatureTest. bigData is default");
         System.out.println("-algsToRun signature,tree -- which methods getMergedCluques for bigData method. Methods are: signature, signature-hamming, tree, brute. signature is default");
         System.out.println("-testsToRun 1,2-4,6 -- which tests to getMergedCluques for bigData test. Run all tests by default. Can be any combination with commas and dashes");
         System.out.println("-testsPrefix db -- which prefix do you use for all eligible tests. Then, program will getMergedCluques tests from folders/files db1,db2,db3,... By default program reads from folder");
         System.out.println("-threads 4 -- how many threads to use in parallel. Usually just the number of cores is the best choice");
+        System.out.println("-outFormat binary -- format of output: text or binary (varint encoded pairs grouped by the first sequence, see EdgeReader). text is default");
+        System.out.println("-distances true -- write distance of each pair to output. false is default");
+        System.out.println("-collapse expand -- run on unique sequences only. expand writes pairs of all original sequences, haplotypes writes one line per pair of unique sequences with their copy counts. none is default");
+        System.out.println("-append new.fas -- new reads for edit-single and hamming-single. They are added to index of input (built or loaded from -snapshot) and only pairs with new reads are written to separate output");
+        System.out.println("-snapshot index.bin -- file with built index of single sample input. It is loaded if it was built for the same input files, l, method and alphabet, otherwise index is built and saved to it");
+        System.out.println("-polymorphic true -- for hamming-single and hamming-multi, verify Hamming distance only on positions where not all sequences (of all samples) are equal. false is default");
+        System.out.println("-sparse true -- for hamming-single and hamming-multi, store reads as differences from consensus and verify Hamming distance on them, if reads have few differences. false is default");
+        System.out.println("-pivots 8 -- for edit-single and hamming-single, compute distances from reads to the consensus and pivots-1 farthest reads and skip candidates whose distances to some pivot differ by more than k. 0 (off) is default");
+        System.out.println("-bitsliced auto -- for Hamming methods, compare read with 64 candidates at once on column-major copy of sequences. true uses it for all candidates, auto for large lists of candidates, false (default) never");
+        System.out.println("-bands 16 -rows 16 -- for edit-lsh and hamming-lsh, number of LSH bands and values in the key of each band. More bands give higher recall, more rows give fewer candidates. 16 and 16 are default for Hamming, 24 and 3 for edit distance");
+        System.out.println("-recallSample 100 -- for edit-lsh and hamming-lsh, number of random reads compared with all reads to estimate recall, 0 to skip. 100 is default");
+        System.out.println("-packed true -- store sequences with 2 bits per nucleotide to reduce memory usage. false is default, Hamming methods always use it");
         System.out.println("Final command can look as follows:");
         System.out.println("java -jar sequence-comparison.jar -k 10 -testsToRun 1,3-5,8 -algsToRun signature-hamming -outDir output");
         System.exit(1);
     }
 
     private static void runEditDistance(File file, int k, int l) throws IOException {
-        Sample sample = getSample(file);
-        if (sample == null) return;
+        String mode = "edit l-mers";
+        File appended = appendedFile();
+        IndexSnapshot snapshot = loadSnapshot(file, appended, mode, l);
+        Sample sample;
+        KMerDict dict;
+        Haplotypes haplotypes = null;
         long start = System.currentTimeMillis();
-        KMerDict dict = KMerDictBuilder.getDict(sample, l);
+        if (snapshot != null) {
+            sample = snapshot.sample;
+            dict = (KMerDict) snapshot.dict;
+        } else {
+            //collapse needs strings, otherwise sample can be packed while reading
+            sample = getSample(file, packedOption() && !collapseOption());
+            if (sample == null) return;
+            haplotypes = collapseIfNeeded(sample);
+            if (haplotypes != null) {
+                sample = haplotypes.sample;
+            }
+            packIfNeeded(sample);
+            start = System.currentTimeMillis();
+            dict = KMerDictBuilder.getDict(sample, l, threadsCount(), false);
+        }
+        Sample delta = readAppended(haplotypes);
+        if (delta != null) {
+            int firstNew = sample.sequences.length;
+            if (hasAppended(snapshot, file, appended, mode, l)) {
+                firstNew -= delta.sequences.length;
+            } else {
+                KMerDictBuilder.append(dict, delta, threadsCount());
+                sample.append(delta);
+                saveSnapshot(sample, dict, mode, l, file, appended);
+            }
+            new SignatureMethod().runDelta(sample, dict, firstNew, k);
+            System.out.println("Total run time: " + (System.currentTimeMillis() - start) + ", ms");
+            return;
+        }
+        if (snapshot == null) {
+            saveSnapshot(sample, dict, mode, l, file);
+        }
         new SignatureMethod().runParallel(sample, dict, k);
+        if (haplotypes != null) {
+            writeCollapsedOutput(haplotypes, sample.name, "signature");
+        }
         System.out.println("Total run time: " + (System.currentTimeMillis() - start) + ", ms");
     }
 
 
     private static void runHammingDistance(File file, int k, int l) throws IOException {
-        Sample sample = getSample(file);
-        sample.sequences = sample.forHamming;
-        System.out.println("There are " + sample.sequences.length + " sequences");
-        System.out.println("Length is " + sample.sequences[0].length());
-        System.out.println("Finished reading");
+        String mode = "hamming entropy chunks";
+        File appended = appendedFile();
+        IndexSnapshot snapshot = loadSnapshot(file, appended, mode, l);
+        Sample sample;
+        KMerDictChunks dict;
+        Haplotypes haplotypes = null;
         long start = System.currentTimeMillis();
-        double[][] profile = Utils.profile(sample);
-        System.out.println("Finished profile");
-        KMerDictChunks dict = KMerDictChunksBuilder.getDict(sample, l, profile);
-        System.out.println("Finished dict");
+        if (snapshot != null) {
+            sample = snapshot.sample;
+            dict = (KMerDictChunks) snapshot.dict;
+        } else {
+            sample = getSample(file, !collapseOption());
+            if (sample == null) return;
+            padForHamming(Collections.singletonList(sample));
+            haplotypes = collapseIfNeeded(sample);
+            if (haplotypes != null) {
+                sample = haplotypes.sample;
+            }
+            //Hamming distance is verified on packed words
+            sample.pack();
+            System.out.println("There are " + sample.sequences.length + " sequences");
+            System.out.println("Length is " + sample.packed.maxLength);
+            System.out.println("Finished reading");
+            start = System.currentTimeMillis();
+            //profile is counted by the builder on the same threads
+            dict = KMerDictChunksBuilder.getDict(sample, l, null, Utils.DEFAULT_ALPHABET, threadsCount());
+            System.out.println("Finished profile and dict");
+        }
+        Sample delta = readAppended(haplotypes);
+        if (delta != null) {
+            int firstNew = sample.sequences.length;
+            if (hasAppended(snapshot, file, appended, mode, l)) {
+                firstNew -= delta.sequences.length;
+            } else {
+                //new reads are padded to the length of indexed ones, as chunks are on the same positions
+                delta.sequences = Utils.stringsForHamming(delta.sequences, sample.packed.maxLength);
+                KMerDictChunksBuilder.append(dict, delta, threadsCount());
+                sample.append(delta);
+                saveSnapshot(sample, dict, mode, l, file, appended);
+            }
+            projectIfNeeded(Collections.singletonList(sample));
+            diffsIfNeeded(Collections.singletonList(sample));
+            new SignatureHammingMethod().runDelta(sample, dict, firstNew, k);
+            System.out.println("Total run time: " + (System.currentTimeMillis() - start) + ", ms");
+            return;
+        }
+        if (snapshot == null) {
+            saveSnapshot(sample, dict, mode, l, file);
+        }
+        projectIfNeeded(Collections.singletonList(sample));
+        diffsIfNeeded(Collections.singletonList(sample));
         new SignatureHammingMethod().runParallel(sample, dict, k);
+        if (haplotypes != null) {
+            writeCollapsedOutput(haplotypes, sample.name, "signature-hamming");
+        }
         System.out.println("Total run time: " + (System.currentTimeMillis() - start) + ", ms");
     }
 
+    /**
+     * Returns file given by -append option or null if it is not set
+     */
+    private static File appendedFile() {
+        String path = settings.get("-append");
+        return path == null ? null : new File(path);
+    }
+
+    /**
+     * Returns sample with new reads from file given by -append option or null if it is not set.
+     * New reads are added to index of input and only pairs with them are searched
+     */
+    private static Sample readAppended(Haplotypes haplotypes) throws IOException {
+        File file = appendedFile();
+        if (file == null) {
+            return null;
+        }
+        if (haplotypes != null) {
+            throw new IllegalArgumentException("-append is not used with -collapse option");
+        }
+        Sample delta = getSample(file);
+        if (delta == null) {
+            throw new IOException("Can't read new reads from " + file);
+        }
+        return delta;
+    }
+
+    /**
+     * Returns index from file given by -snapshot option if it was built for the same files and parameters, null otherwise.
+     * Index of input together with appended reads is tried first, as it is saved after they are added,
+     * then index of input only
+     *
+     * @param appended file with new reads, null if there are no ones
+     */
+    private static IndexSnapshot loadSnapshot(File input, File appended, String mode, int l) throws IOException {
+        String path = snapshotPath();
+        if (path == null) {
+            return null;
+        }
+        long start = System.currentTimeMillis();
+        IndexSnapshot snapshot = null;
+        if (appended != null) {
+            snapshot = IndexSnapshot.load(Paths.get(path), IndexSnapshot.key(mode, l, Utils.DEFAULT_ALPHABET, input, appended));
+        }
+        if (snapshot == null) {
+            snapshot = IndexSnapshot.load(Paths.get(path), IndexSnapshot.key(mode, l, Utils.DEFAULT_ALPHABET, input));
+        }
+        if (snapshot == null) {
+            System.out.println("Snapshot " + path + " is missing or was built for other input, index will be built and saved");
+        } else {
+            System.out.println("Index is loaded from snapshot " + path + " in " + (System.currentTimeMillis() - start) + " ms");
+        }
+        return snapshot;
+    }
+
+    /**
+     * Returns if loaded index already has appended reads at the end, so they are not added again
+     */
+    private static boolean hasAppended(IndexSnapshot snapshot, File input, File appended, String mode, int l) throws IOException {
+        return snapshot != null && snapshot.key.equals(IndexSnapshot.key(mode, l, Utils.DEFAULT_ALPHABET, input, appended));
+    }
+
+    /**
+     * Saves index to file given by -snapshot option, key is made of inputs, so index with appended reads
+     * is found only together with the same appended file
+     */
+    private static void saveSnapshot(Sample sample, AbstractKMerDict dict, String mode, int l, File... inputs) throws IOException {
+        String path = snapshotPath();
+        if (path == null) {
+            return;
+        }
+        if (sample.packed == null) {
+            sample.pack();
+        }
+        IndexSnapshot.save(Paths.get(path), IndexSnapshot.key(mode, l, Utils.DEFAULT_ALPHABET, inputs), sample, dict);
+        System.out.println("Index snapshot is saved to " + path);
+    }
+
+    /**
+     * Returns value of -snapshot option, snapshots are not used for collapsed runs
+     */
+    private static String snapshotPath() {
+        String path = settings.get("-snapshot");
+        if (path != null && !settings.getOrDefault("-collapse", "none").equals("none")) {
+            System.out.println("Snapshot is not used with -collapse option");
+            return null;
+        }
+        return path;
+    }
+
 
     private static void runMulti(File folder, int k, int l, boolean edit) throws IOException, InterruptedException, ExecutionException {
         if (!folder.isDirectory()) {
             System.out.println("Input is not a directory");
             return;
         }
-        List<Sample> samples = DataReader.readSampleList(folder, true);
+        List<Sample> samples = DataReader.readSampleList(folder, true, false, !edit || packedOption());
+        if (!edit) {
+            padForHamming(samples);
+        }
         String method = edit ? "edit distance" : "hamming distance";
         System.out.println("Start " + method + " multi run for t=" + k);
         System.out.println("Total number of sample = " + samples.size());
         long start = System.currentTimeMillis();
         KMerDict[] merDicts = new KMerDict[samples.size()];
         KMerDictChunks[] chunkDicts = new KMerDictChunks[samples.size()];
-        int cores = Runtime.getRuntime().availableProcessors();
-        String threads = Start.settings.get("-threads");
-        if (threads != null) {
-            cores = Integer.valueOf(threads);
-        }
+        int cores = threadsCount();
         System.out.println("Running threads = " + cores);
         ExecutorService executor = Executors.newFixedThreadPool(cores);
         List<Callable<Void>> kmerTaskList = new ArrayList<>();
@@ -197,25 +413,130 @@ public class Start {
         }
         System.out.println("Time to build dictionaries = " + (System.currentTimeMillis() - start));
         executor.shutdown();
-        executor = Executors.newFixedThreadPool(cores);
-        List<Callable<Long>> taskList = new ArrayList<>();
-        for (int j = 0; j < samples.size(); j++) {
-            for (int fIndex = j + 1; fIndex < samples.size(); fIndex++) {
-                if (edit) {
-                    taskList.add(new CallEditSignature(samples.get(j), samples.get(fIndex), merDicts[j], merDicts[fIndex], k));
-                } else {
-                    taskList.add(new CallHammingSignature(samples.get(j), samples.get(fIndex), chunkDicts[j], chunkDicts[fIndex], k));
-                }
+        //one combined index instead of a task for each pair of samples
+        int[] offsets = MultiSignatureMethod.offsets(samples);
+        if (edit) {
+            KMerDict multiDict = KMerDictBuilder.getMultiDict(merDicts, offsets, cores);
+            MultiSignatureMethod.run(samples, merDicts, multiDict, offsets, k);
+        } else {
+            KMerDictChunks multiDict = KMerDictChunksBuilder.getMultiDict(chunkDicts, offsets, cores);
+            projectIfNeeded(samples);
+            diffsIfNeeded(samples);
+            MultiSignatureMethod.run(samples, chunkDicts, multiDict, offsets, k);
+        }
+        System.out.println(method + " run has ended with time = " + (System.currentTimeMillis() - start));
+        System.out.println();
+    }
 
+    /**
+     * Indexes reference samples from input (one file or folder with one sample per file) once and compares reads
+     * of query samples from -query option with them. Pairs inside query or reference samples are not searched
+     */
+    private static void runQuery(File input, int k, int l, boolean edit) throws IOException, InterruptedException, ExecutionException {
+        String queryPath = settings.get("-query");
+        if (queryPath == null) {
+            System.out.println("Query is not set, use -query option");
+            return;
+        }
+        List<Sample> references = readSamples(input, !edit || packedOption());
+        List<Sample> queries = readSamples(new File(queryPath), !edit || packedOption());
+        if (references == null || queries == null) {
+            return;
+        }
+        if (!edit) {
+            List<Sample> all = new ArrayList<>(references);
+            all.addAll(queries);
+            padForHamming(all);
+        }
+        String method = edit ? "edit distance" : "hamming distance";
+        System.out.println("Start " + method + " query run for t=" + k);
+        System.out.println("Number of reference samples = " + references.size() + ", number of query samples = " + queries.size());
+        long start = System.currentTimeMillis();
+        int cores = threadsCount();
+        int[] offsets = MultiSignatureMethod.offsets(references);
+        if (edit) {
+            KMerDict[] dicts = new KMerDict[references.size()];
+            for (int i = 0; i < dicts.length; i++) {
+                dicts[i] = KMerDictBuilder.getDict(references.get(i), l, cores, false);
+            }
+            KMerDict multiDict = KMerDictBuilder.getMultiDict(dicts, offsets, cores);
+            System.out.println("Time to build reference index = " + (System.currentTimeMillis() - start));
+            KMerDict[] queryDicts = new KMerDict[queries.size()];
+            for (int i = 0; i < queryDicts.length; i++) {
+                queryDicts[i] = KMerDictBuilder.getDict(queries.get(i), l, cores, false);
+            }
+            MultiSignatureMethod.runQuery(queries, queryDicts, references, dicts, multiDict, offsets, k);
+        } else {
+            KMerDictChunks[] dicts = new KMerDictChunks[references.size()];
+            for (int i = 0; i < dicts.length; i++) {
+                dicts[i] = KMerDictChunksBuilder.getDict(references.get(i), l);
+            }
+            KMerDictChunks multiDict = KMerDictChunksBuilder.getMultiDict(dicts, offsets, cores);
+            System.out.println("Time to build reference index = " + (System.currentTimeMillis() - start));
+            KMerDictChunks[] queryDicts = new KMerDictChunks[queries.size()];
+            for (int i = 0; i < queryDicts.length; i++) {
+                queryDicts[i] = KMerDictChunksBuilder.getDict(queries.get(i), l);
             }
+            MultiSignatureMethod.runQuery(queries, queryDicts, references, dicts, multiDict, offsets, k);
         }
-        List<Future<Long>> futures = executor.invokeAll(taskList);
+        System.out.println(method + " query run has ended with time = " + (System.currentTimeMillis() - start));
+    }
 
-        for (Future<Long> fut : futures) {
-            fut.get();
+    /**
+     * Reads one sample from file or one sample per file from folder, returns null if there is no such file
+     */
+    private static List<Sample> readSamples(File file, boolean packed) throws IOException {
+        if (!file.exists()) {
+            System.out.println(String.format("Input file %s does not exists", file.getCanonicalPath()));
+            return null;
         }
-        executor.shutdown();
-        System.out.println(method + " run has ended with time = " + (System.currentTimeMillis() - start));
+        if (file.isDirectory()) {
+            return DataReader.readSampleList(file, true, false, packed);
+        }
+        List<Sample> result = new ArrayList<>();
+        result.add(DataReader.readSampleFromFile(file, packed));
+        return result;
+    }
+
+    /**
+     * Brute force for all pairs of samples from folder, each pair is compared on all threads
+     */
+    /**
+     * Pads sequences of all samples to the length of the longest one, as Hamming distance is defined for sequences
+     * of one length and chunks and packed words of different samples should match
+     */
+    private static void padForHamming(List<Sample> samples) {
+        int length = 0;
+        for (Sample sample : samples) {
+            for (int i = 0; i < sample.sequences.length; i++) {
+                length = Math.max(length, sample.length(i));
+            }
+        }
+        for (Sample sample : samples) {
+            sample.padForHamming(length);
+        }
+    }
+
+    private static void runBruteMulti(File folder, int k, boolean edit) throws IOException {
+        if (!folder.isDirectory()) {
+            System.out.println("Input is not a directory");
+            return;
+        }
+        List<Sample> samples = DataReader.readSampleList(folder, true, false, true);
+        if (!edit) {
+            padForHamming(samples);
+        }
+        long start = System.currentTimeMillis();
+        for (int i = 0; i < samples.size(); i++) {
+            for (int j = i + 1; j < samples.size(); j++) {
+                if (edit) {
+                    BruteForce.runParallel(samples.get(i), samples.get(j), k);
+                } else {
+                    BruteForceHamming.runParallel(samples.get(i), samples.get(j), k);
+                }
+            }
+        }
+        System.out.println("Brute force multi time " + (System.currentTimeMillis() - start));
         System.out.println();
     }
 
@@ -240,29 +561,80 @@ public class Start {
         System.out.println();
     }
 
+    /**
+     * Approximate search by LSH, bands and rows are taken from -bands and -rows options,
+     * defaults give recall close to 1 for k = 10 on 8000 reads of 264 bases (db4)
+     */
+    private static void runLsh(File file, int k, int l, boolean edit) throws IOException {
+        //bit sampling and verification use packed symbols, padded as for Hamming distance
+        Sample sample = getSample(file, !edit || packedOption());
+        if (sample == null) return;
+        int bands = Integer.parseInt(settings.getOrDefault("-bands", edit ? "24" : "16"));
+        int rows = Integer.parseInt(settings.getOrDefault("-rows", edit ? "3" : "16"));
+        int recallSample = Integer.parseInt(settings.getOrDefault("-recallSample", "100"));
+        long start = System.currentTimeMillis();
+        LshMethod.run(sample, k, edit, bands, rows, l, recallSample);
+        System.out.println("Total run time: " + (System.currentTimeMillis() - start) + ", ms");
+    }
+
     private static void runBruteWithTime(int k, File file) throws IOException {
-        Sample sample = getSample(file);
+        //packed words give Hamming upper bound check before edit distance
+        Sample sample = getSample(file, true);
+        if (sample == null) return;
         long start = System.currentTimeMillis();
-        BruteForce.run(sample, k);
+        BruteForce.runParallel(sample, k);
         System.out.println("Brute force time " + (System.currentTimeMillis() - start));
         System.out.println();
     }
 
-    private static void runBruteHammingWithTime(int k, Sample query) throws IOException {
+    private static void runBruteHammingWithTime(int k, File file) throws IOException {
+        Sample query = getSample(file, true);
+        if (query == null) return;
         long start = System.currentTimeMillis();
-        BruteForceHamming.run(query, k);
+        BruteForceHamming.runParallel(query, k);
         System.out.println("Brute Hamming force time " + (System.currentTimeMillis() - start));
         System.out.println();
     }
 
     public static Path getOutputFilename(Sample sample, String algName) throws IOException {
-        String dir = settings.getOrDefault("-outDir", "output/");
-        return preparePath((dir.equals("") ? "" : dir + "/") + sample.name + "-" + algName + "-output.txt");
+        return preparePath(outputPath(sample.name, algName, false).toString());
     }
 
     public static Path getOutputFilename(Sample sample1, Sample sample2, String algName) throws IOException {
+        return preparePath(outputPath(sample1.name + "_" + sample2.name, algName, false).toString());
+    }
+
+    /**
+     * Opens output of related pairs in format given by -outFormat and -distances options
+     */
+    public static EdgeWriter getOutputWriter(Sample sample, String algName) throws IOException {
+        return getOutputWriter(sample.name, algName);
+    }
+
+    public static EdgeWriter getOutputWriter(Sample sample1, Sample sample2, String algName) throws IOException {
+        return getOutputWriter(sample1.name + "_" + sample2.name, algName);
+    }
+
+    private static EdgeWriter getOutputWriter(String name, String algName) throws IOException {
+        boolean binary = binaryOutput();
+        return new EdgeWriter(preparePath(outputPath(name, algName, binary).toString()), binary, distancesOutput());
+    }
+
+    public static boolean binaryOutput() {
+        String format = settings.getOrDefault("-outFormat", "text");
+        if (!format.equals("text") && !format.equals("binary")) {
+            helpOutput(format, true);
+        }
+        return format.equals("binary");
+    }
+
+    public static boolean distancesOutput() {
+        return Boolean.parseBoolean(settings.getOrDefault("-distances", "false"));
+    }
+
+    private static Path outputPath(String name, String algName, boolean binary) {
         String dir = settings.getOrDefault("-outDir", "output/");
-        return preparePath((dir.equals("") ? "" : dir + "/") + sample1.name + "_" + sample2.name + "-" + algName + "-output.txt");
+        return Paths.get((dir.equals("") ? "" : dir + "/") + name + "-" + algName + "-output" + (binary ? ".bin" : ".txt"));
     }
 
     private static Path preparePath(String filePath) throws IOException {
@@ -276,19 +648,223 @@ public class Start {
     }
 
     private static Sample getSample(File file) throws IOException {
+        return getSample(file, false);
+    }
+
+    /**
+     * Reads sample from file or folder, packed sample is read without strings, see {@link DataReader#readPacked(List, boolean)}
+     */
+    private static Sample getSample(File file, boolean packed) throws IOException {
         if (!file.exists()) {
             System.out.println(String.format("Input file %s does not exists", file.getCanonicalPath()));
             return null;
         }
         Sample sample;
         if (file.isDirectory()) {
-            sample = DataReader.readSampleFromFolder(file, false);
+            sample = DataReader.readSampleFromFolder(file, false, packed);
         } else {
-            sample = DataReader.readSampleFromFile(file);
+            sample = DataReader.readSampleFromFile(file, packed);
         }
         return sample;
     }
 
+    /**
+     * Returns value of -bitsliced option: true to verify Hamming distance of all candidates by blocks of 64 sequences,
+     * false (default) to verify them pairwise, auto to use blocks for large lists of candidates only
+     */
+    public static String bitSlicedMode() {
+        String mode = settings.getOrDefault("-bitsliced", "false");
+        if (!mode.equals("auto") && !mode.equals("true") && !mode.equals("false")) {
+            helpOutput(mode, true);
+        }
+        return mode;
+    }
+
+    /**
+     * Returns value of -pivots option, the number of pivots for triangle inequality filter, 0 if filter is off
+     */
+    public static int pivotsCount() {
+        return Integer.parseInt(settings.getOrDefault("-pivots", "0"));
+    }
+
+    /**
+     * Returns value of -threads option or the number of cores if it is not set
+     */
+    public static int threadsCount() {
+        String threads = settings.get("-threads");
+        return threads != null ? Integer.valueOf(threads) : Runtime.getRuntime().availableProcessors();
+    }
+
+    /**
+     * Collapses exact duplicates if -collapse option is expand or haplotypes, returns null otherwise
+     */
+    private static Haplotypes collapseIfNeeded(Sample sample) {
+        String mode = settings.getOrDefault("-collapse", "none");
+        if (mode.equals("none")) {
+            return null;
+        }
+        if (!mode.equals("expand") && !mode.equals("haplotypes")) {
+            helpOutput(mode, true);
+        }
+        Haplotypes haplotypes = Haplotypes.collapse(sample);
+        System.out.println("Unique sequences = " + haplotypes.size() + " of " + haplotypes.originalSize);
+        return haplotypes;
+    }
+
+    /**
+     * Rewrites output of collapsed run, where pairs are indexes of haplotypes. For expand mode each pair is replaced
+     * by all pairs of original sequences and copies of the same haplotype are paired too, format of output is kept.
+     * For haplotypes mode output is always text, each line is "representative1 representative2 count1 count2"
+     * and haplotypes with several copies have a line with the same representative twice
+     */
+    private static void writeCollapsedOutput(Haplotypes haplotypes, String name, String algName) throws IOException {
+        Path path = outputPath(name, algName, binaryOutput());
+        if (settings.getOrDefault("-collapse", "none").equals("expand")) {
+            expandCollapsedOutput(haplotypes, path);
+            return;
+        }
+        Path result = outputPath(name, algName, false);
+        Path tmp = Paths.get(result.toString() + ".tmp");
+        try (EdgeReader reader = EdgeReader.open(path);
+             BufferedWriter writer = Files.newBufferedWriter(tmp)) {
+            for (int h = 0; h < haplotypes.size(); h++) {
+                if (haplotypes.count(h) > 1) {
+                    writeHaplotypePair(writer, haplotypes, h, h);
+                }
+            }
+            while (reader.next()) {
+                writeHaplotypePair(writer, haplotypes, reader.i, reader.j);
+            }
+        }
+        Files.move(tmp, result, StandardCopyOption.REPLACE_EXISTING);
+        if (!result.equals(path)) {
+            Files.delete(path);
+        }
+    }
+
+    private static void writeHaplotypePair(BufferedWriter writer, Haplotypes haplotypes, int h1, int h2) throws IOException {
+        writer.write(haplotypes.representative(h1) + " " + haplotypes.representative(h2) + " "
+                + haplotypes.count(h1) + " " + haplotypes.count(h2) + "\n");
+    }
+
+    private static void expandCollapsedOutput(Haplotypes haplotypes, Path path) throws IOException {
+        Path tmp = Paths.get(path.toString() + ".tmp");
+        try (EdgeReader reader = EdgeReader.open(path);
+             EdgeWriter writer = new EdgeWriter(tmp, reader.binary, distancesOutput())) {
+            EdgeBuffer out = writer.newBuffer();
+            for (int h = 0; h < haplotypes.size(); h++) {
+                if (haplotypes.count(h) > 1) {
+                    expandHaplotypePair(out, haplotypes, h, h, 0);
+                }
+            }
+            while (reader.next()) {
+                expandHaplotypePair(out, haplotypes, reader.i, reader.j, Math.max(reader.distance, 0));
+                if (out.size() > 1 << 20) {
+                    writer.write(out);
+                }
+            }
+            writer.write(out);
+        }
+        Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private static void expandHaplotypePair(EdgeBuffer out, Haplotypes haplotypes, int h1, int h2, int d) {
+        int[] copies1 = haplotypes.copies[h1];
+        int[] copies2 = haplotypes.copies[h2];
+        for (int i = 0; i < copies1.length; i++) {
+            //pairs inside of one haplotype are written once
+            for (int j = h1 == h2 ? i + 1 : 0; j < copies2.length; j++) {
+                out.add(Math.min(copies1[i], copies2[j]), Math.max(copies1[i], copies2[j]), d);
+            }
+        }
+    }
+
+    /**
+     * If -polymorphic option is set, projects packed sequences of samples on positions where not all of them are equal,
+     * so Hamming distance is verified on these positions only
+     */
+    private static void projectIfNeeded(List<Sample> samples) {
+        if (!Boolean.parseBoolean(settings.getOrDefault("-polymorphic", "false"))) {
+            return;
+        }
+        PackedSequences[] packed = new PackedSequences[samples.size()];
+        for (int i = 0; i < packed.length; i++) {
+            packed[i] = samples.get(i).packed;
+        }
+        int[] columns;
+        try {
+            columns = PackedSequences.polymorphicColumns(packed);
+        } catch (IllegalArgumentException e) {
+            System.out.println("Polymorphic positions are not used: " + e.getMessage());
+            return;
+        }
+        for (Sample sample : samples) {
+            sample.projection = sample.packed.project(columns);
+        }
+        System.out.println("Polymorphic positions = " + columns.length + " of " + packed[0].maxLength);
+    }
+
+    /**
+     * If -sparse option is set, stores sequences of samples as differences from their common consensus,
+     * so Hamming distance is verified by merging lists of differences. They are not used if reads have so many
+     * differences that comparing packed words is faster
+     */
+    private static void diffsIfNeeded(List<Sample> samples) {
+        if (!Boolean.parseBoolean(settings.getOrDefault("-sparse", "false"))) {
+            return;
+        }
+        PackedSequences[] packed = new PackedSequences[samples.size()];
+        for (int i = 0; i < packed.length; i++) {
+            packed[i] = samples.get(i).packed;
+        }
+        SparseDiffs[] diffs;
+        try {
+            diffs = SparseDiffs.of(packed);
+        } catch (IllegalArgumentException e) {
+            System.out.println("Sparse differences are not used: " + e.getMessage());
+            return;
+        }
+        long positions = 0;
+        long reads = 0;
+        for (SparseDiffs d : diffs) {
+            positions += d.positions.length;
+            reads += d.size();
+        }
+        double average = reads == 0 ? 0 : (double) positions / reads;
+        //merge step is several times slower than popcount of a word of 32 positions
+        if (average > 2 * packed[0].wordsPerSequence) {
+            System.out.printf("Sparse differences are not used: %.1f differences from consensus per read on average%n", average);
+            return;
+        }
+        for (int i = 0; i < diffs.length; i++) {
+            samples.get(i).diffs = diffs[i];
+        }
+        System.out.printf("Sparse differences from consensus: %.1f per read on average%n", average);
+    }
+
+    /**
+     * Builds 2-bit packed sequences for sample if -packed option is set, strings of sample are released
+     */
+    private static void packIfNeeded(Sample sample) {
+        if (packedOption()) {
+            sample.pack();
+        }
+    }
+
+    /**
+     * Returns value of -packed option
+     */
+    private static boolean packedOption() {
+        return Boolean.parseBoolean(settings.getOrDefault("-packed", "false"));
+    }
+
+    /**
+     * Returns true if -collapse option is set, collapse compares strings, so sample is not packed while reading
+     */
+    private static boolean collapseOption() {
+        return !settings.getOrDefault("-collapse", "none").equals("none");
+    }
+
     private static void printVersion() throws IOException {
         final Properties properties = new Properties();
         properties.load(Start.class.getClassLoader().getResourceAsStream("project.properties"));
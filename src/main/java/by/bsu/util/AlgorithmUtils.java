@@ -1,55 +1,24 @@
 package by.bsu.util;
 
-import com.carrotsearch.hppc.LongSet;
-import com.carrotsearch.hppc.cursors.LongCursor;
-
-import by.bsu.model.AbstractKMerDict;
-
+import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Queue;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.IntConsumer;
 
 /**
  * Created by c5239200 on 7/13/17.
  */
 public class AlgorithmUtils {
 
-    /**
-     * Calculates how many l-mers from fixed positions from first dictionary are in second dictionary
-     */
-    public static int calculateCoincidences(AbstractKMerDict dict1, AbstractKMerDict dict2) {
-        int kMerCoincidences = 0;
-        for (LongSet positionHashes : dict1.wholeSampleChunksHashesList) {
-            for (LongCursor hash : positionHashes) {
-                if (dict2.allHashesSet.contains(hash.value)) {
-                    kMerCoincidences++;
-                    break;
-                }
-            }
-        }
-        return kMerCoincidences;
-    }
-
-    /**
-     * Using array instead of collection provide performance improvement due to low cost of iteration and random access by index
-     * @param fill
-     */
-    public static int[] fillPossibleSequencesFromArray(int[] fill) {
-        int[] tmp = new int[fill.length];
-        int last = 0;
-        for (int j = 0; j < fill.length; j++) {
-            if (fill[j] != 0) {
-                tmp[last++] = j;
-            }
-        }
-        int[] result = new int[last];
-        System.arraycopy(tmp, 0, result, 0, last);
-        return result;
-    }
-
     /**
      * Binary search return index of x in sorted array or index of first element that is lower than x.
      * Returns 0 if x is less then arr[0]
@@ -137,4 +106,45 @@ public class AlgorithmUtils {
         }
         return result;
     }
+
+    /**
+     * Runs task for each shard 0, 1, ..., shards - 1 on given amount of threads and waits for all of them.
+     * Shards are processed in the calling thread if there is only one thread
+     */
+    public static void runShards(int threads, int shards, IntConsumer task) {
+        if (threads <= 1 || shards <= 1) {
+            for (int shard = 0; shard < shards; shard++) {
+                task.accept(shard);
+            }
+            return;
+        }
+        ExecutorService service = Executors.newFixedThreadPool(Math.min(threads, shards));
+        List<Callable<Void>> tasks = new ArrayList<>();
+        for (int shard = 0; shard < shards; shard++) {
+            int s = shard;
+            tasks.add(() -> {
+                task.accept(s);
+                return null;
+            });
+        }
+        try {
+            for (Future<Void> future : service.invokeAll(tasks)) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Parallel tasks were interrupted", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Parallel task failed", e.getCause());
+        } finally {
+            service.shutdown();
+        }
+    }
+
+    /**
+     * Returns first element of shard when n elements are split into almost equal contiguous shards
+     */
+    public static int shardStart(int shard, int shards, int n) {
+        return (int) ((long) n * shard / shards);
+    }
 }
@@ -1,14 +1,22 @@
 package by.bsu.util;
 
+import by.bsu.model.PackedSequences;
 import by.bsu.model.Sample;
 
+import com.carrotsearch.hppc.IntArrayList;
+
 import java.io.File;
 import java.io.IOException;
-import java.nio.file.Files;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
 import java.util.stream.Collectors;
@@ -22,26 +30,156 @@ public class DataReader {
         return readList(filePath, false);
     }
 
+    /**
+     * Reads sequences of FASTA file. File is mapped to memory and scanned twice: first pass finds lengths of records,
+     * second one copies bases straight to arrays of exact size, so lines are never materialized.
+     * Record ends on header or on empty line, sequence lines can be split and end with CRLF
+     */
     public static String[] readList(Path filePath, boolean reversed) throws IOException {
-        List<String> raw = Files.readAllLines(filePath);
-        List<String> result = new ArrayList<>();
-        int i = 0;
-        StringBuilder seq = new StringBuilder();
-        for (int j = 0; j < raw.size(); j++) {
-            String str = raw.get(j);
-            if (str.startsWith(">") && seq.length() > 0 || str.length() == 0) {
-                result.add((reversed ? seq.reverse() : seq).toString());
-                i++;
-                seq.setLength(0);
-            } else if (!str.startsWith(">")) {
-                seq.append(str);
-                //workaround for for cases when file doesn't contain last empty string
-                if (j + 1 == raw.size()) {
-                    result.add((reversed ? seq.reverse() : seq).toString());
+        try (FileChannel channel = FileChannel.open(filePath, StandardOpenOption.READ)) {
+            IntArrayList lengths = new IntArrayList();
+            new FastaScanner(lengths).scan(channel);
+            String[] result = new String[lengths.size()];
+            new FastaScanner(lengths, 0, result, null, reversed).scan(channel);
+            return result;
+        }
+    }
+
+    /**
+     * Reads sequences of given FASTA files one after another as {@link #readList(Path, boolean)} does, but bases
+     * are encoded from mapped files straight to packed storage, that is allocated once for lengths found by the first
+     * pass, so neither strings nor byte arrays of sequences are made
+     */
+    public static PackedSequences readPacked(List<File> files, boolean reversed) throws IOException {
+        IntArrayList lengths = new IntArrayList();
+        int[] firsts = new int[files.size()];
+        for (int i = 0; i < files.size(); i++) {
+            firsts[i] = lengths.size();
+            try (FileChannel channel = FileChannel.open(files.get(i).toPath(), StandardOpenOption.READ)) {
+                new FastaScanner(lengths).scan(channel);
+            }
+        }
+        int maxLength = 0;
+        for (int i = 0; i < lengths.size(); i++) {
+            maxLength = Math.max(maxLength, lengths.get(i));
+        }
+        PackedSequences result = new PackedSequences(lengths.size(), maxLength);
+        for (int i = 0; i < files.size(); i++) {
+            try (FileChannel channel = FileChannel.open(files.get(i).toPath(), StandardOpenOption.READ)) {
+                new FastaScanner(lengths, firsts[i], null, result, reversed).scan(channel);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * State machine over FASTA bytes. It either counts bases of each record or writes them to strings
+     * or packed sequences, bytes are read from mapped buffer without copying
+     */
+    private static class FastaScanner {
+        private static final long MAP_SIZE = 1 << 30;
+
+        private IntArrayList lengths;
+        private boolean count;
+        private String[] result;
+        private PackedSequences packed;
+        private boolean reversed;
+        private int record;
+        private int recordLength;
+        private byte[] current;
+        private int length;
+        private boolean lineStart = true;
+        private boolean header;
+
+        /**
+         * Adds lengths of records to given list
+         */
+        FastaScanner(IntArrayList lengths) {
+            this.count = true;
+            this.lengths = lengths;
+        }
+
+        /**
+         * Writes records to result or to packed sequences starting from given index, lengths of records
+         * are found by the first pass
+         */
+        FastaScanner(IntArrayList lengths, int first, String[] result, PackedSequences packed, boolean reversed) {
+            this.lengths = lengths;
+            this.record = first;
+            this.result = result;
+            this.packed = packed;
+            this.reversed = reversed;
+            startRecord();
+        }
+
+        void scan(FileChannel channel) throws IOException {
+            long size = channel.size();
+            for (long position = 0; position < size; position += MAP_SIZE) {
+                accept(channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(MAP_SIZE, size - position)));
+            }
+            finishRecord();
+        }
+
+        private void accept(MappedByteBuffer mapped) {
+            for (int i = 0, n = mapped.limit(); i < n; i++) {
+                byte b = mapped.get(i);
+                if (header) {
+                    if (b == '\n') {
+                        header = false;
+                        lineStart = true;
+                    }
+                } else if (b == '\n') {
+                    if (lineStart) {
+                        finishRecord();
+                    }
+                    lineStart = true;
+                } else if (b == '>' && lineStart) {
+                    finishRecord();
+                    header = true;
+                } else if (b != '\r' && b != ' ' && b != '\t') {
+                    if (!count) {
+                        int pos = reversed ? recordLength - 1 - length : length;
+                        if (packed != null) {
+                            packed.put(record, pos, (char) (b & 0xFF));
+                        } else {
+                            current[pos] = b;
+                        }
+                    }
+                    length++;
+                    lineStart = false;
                 }
             }
         }
-        return result.stream().toArray(String[]::new);
+
+        private void startRecord() {
+            if (record >= lengths.size()) {
+                return;
+            }
+            recordLength = lengths.get(record);
+            if (packed != null) {
+                packed.begin(record, recordLength);
+            } else {
+                current = new byte[recordLength];
+            }
+        }
+
+        private void finishRecord() {
+            if (length == 0) {
+                return;
+            }
+            if (count) {
+                lengths.add(length);
+            } else {
+                if (packed != null) {
+                    packed.end(record);
+                } else {
+                    result[record] = new String(current, StandardCharsets.ISO_8859_1);
+                }
+                record++;
+                startRecord();
+            }
+            length = 0;
+        }
     }
 
     public static String[] readList(String filePath) throws IOException {
@@ -53,12 +191,19 @@ public class DataReader {
     }
 
     public static List<Sample> readSampleList(File dir, boolean onePerFile, boolean reversed) throws IOException {
+        return readSampleList(dir, onePerFile, reversed, false);
+    }
+
+    /**
+     * Reads samples of folder, if packed is true they have packed sequences only, see {@link #readPacked(List, boolean)}
+     */
+    public static List<Sample> readSampleList(File dir, boolean onePerFile, boolean reversed, boolean packed) throws IOException {
         List<Sample> result = new ArrayList<>();
         for (File file : dir.listFiles()) {
             if (onePerFile == file.isDirectory()) {
                 continue;
             }
-            result.add(onePerFile ? readSampleFromFile(file) : readSampleFromFolder(file, reversed));
+            result.add(onePerFile ? readSampleFromFile(file, packed) : readSampleFromFolder(file, reversed, packed));
         }
         return result;
     }
@@ -68,11 +213,28 @@ public class DataReader {
     }
 
     public static Sample readSampleFromFolder(File file, boolean reversed) {
+        return readSampleFromFolder(file, reversed, false);
+    }
+
+    /**
+     * Reads all files of folder as one sample. Packed sample is read by {@link #readPacked(List, boolean)}
+     * and fails if some file can't be read, as storage is allocated for all of them
+     */
+    public static Sample readSampleFromFolder(File file, boolean reversed, boolean packed) {
         List<File> sortedFiles = Arrays.stream(file.listFiles())
+                .filter(f -> !f.isHidden())
                 .sorted(Comparator.comparing(File::getName))
                 .collect(Collectors.toList());
+        String name = file.getName().replaceFirst("[.][^.]+$", "");
+        if (packed) {
+            try {
+                return new Sample(name, readPacked(sortedFiles, reversed));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
         List<String> seq = new ArrayList<>();
-        sortedFiles.stream().filter(f -> !f.isHidden()).forEach(f -> {
+        sortedFiles.forEach(f -> {
             try {
                 seq.addAll(Arrays.asList(readList(f.toPath(), reversed)));
             } catch (IOException e) {
@@ -81,10 +243,18 @@ public class DataReader {
             }
         });
 
-        return new Sample(file.getName().replaceFirst("[.][^.]+$", ""), seq.stream().toArray(String[]::new));
+        return new Sample(name, seq.stream().toArray(String[]::new));
     }
 
     public static Sample readSampleFromFile(File file) throws IOException {
-        return new Sample(file.getName().replaceFirst("[.][^.]+$", ""), readList(file.toPath()));
+        return readSampleFromFile(file, false);
+    }
+
+    public static Sample readSampleFromFile(File file, boolean packed) throws IOException {
+        String name = file.getName().replaceFirst("[.][^.]+$", "");
+        if (packed) {
+            return new Sample(name, readPacked(Collections.singletonList(file), false));
+        }
+        return new Sample(name, readList(file.toPath()));
     }
 }
@@ -1,5 +1,6 @@
 package by.bsu.util;
 
+import by.bsu.model.PackedSequences;
 import by.bsu.model.Sample;
 import com.carrotsearch.hppc.LongHashSet;
 import com.carrotsearch.hppc.LongSet;
@@ -151,7 +152,11 @@ public class Utils {
     }
 
     public static String consensus(Sample sample) {
-        return consensus(sample.sequences);
+        String[] sequences = new String[sample.sequences.length];
+        for (int i = 0; i < sequences.length; i++) {
+            sequences[i] = sample.sequence(i);
+        }
+        return consensus(sequences);
     }
 
     /**
@@ -175,35 +180,131 @@ public class Utils {
     }
 
     public static double[][] profile(Sample sample, String alphabet) {
-        String[] sequences = sample.forHamming;
+        return profile(sample, alphabet, 1);
+    }
+
+    /**
+     * Sequences are split into shards that are counted on given amount of threads, partial counts are summed at the end
+     */
+    public static double[][] profile(Sample sample, String alphabet, int threads) {
+        if (sample.packed != null && DEFAULT_ALPHABET.equals(alphabet)) {
+            return profile(sample.packed, threads);
+        }
+        String[] sequences = sample.forHamming();
         if (sequences.length == 0) {
             return new double[0][alphabet.length()];
         }
         int l = sequences[0].length();
-        int[][] count = new int[alphabet.length()][l];
-        for (String s : sequences) {
-            for (int i = 0; i < s.length(); i++) {
-                int d = convertLetterToDigit(s.charAt(i), alphabet);
-                if (d != -1) {
-                    count[d][i]++;
+        int shards = Math.max(1, Math.min(threads, sequences.length));
+        int[][][] counts = new int[shards][][];
+        AlgorithmUtils.runShards(threads, shards, shard -> {
+            int[][] count = new int[alphabet.length()][l];
+            int to = AlgorithmUtils.shardStart(shard + 1, shards, sequences.length);
+            for (int seq = AlgorithmUtils.shardStart(shard, shards, sequences.length); seq < to; seq++) {
+                countProfile(sequences[seq], alphabet, count);
+            }
+            counts[shard] = count;
+        });
+        return normalizeProfile(counts, sequences.length);
+    }
+
+    /**
+     * Adds symbols of sequence to profile counts, symbols that are not in alphabet are not counted
+     */
+    public static void countProfile(String sequence, String alphabet, int[][] count) {
+        for (int i = 0; i < sequence.length(); i++) {
+            int d = convertLetterToDigit(sequence.charAt(i), alphabet);
+            if (d != -1) {
+                count[d][i]++;
+            }
+        }
+    }
+
+    /**
+     * Profile of packed sequences for default alphabet, padding and other masked symbols are not counted
+     */
+    public static double[][] profile(PackedSequences packed) {
+        return profile(packed, 1);
+    }
+
+    public static double[][] profile(PackedSequences packed, int threads) {
+        int alphabetLength = DEFAULT_ALPHABET.length();
+        if (packed.size == 0) {
+            return new double[0][alphabetLength];
+        }
+        int shards = Math.max(1, Math.min(threads, packed.size));
+        int[][][] counts = new int[shards][][];
+        AlgorithmUtils.runShards(threads, shards, shard -> {
+            int[][] count = new int[alphabetLength][packed.maxLength];
+            int to = AlgorithmUtils.shardStart(shard + 1, shards, packed.size);
+            for (int seq = AlgorithmUtils.shardStart(shard, shards, packed.size); seq < to; seq++) {
+                countProfile(packed, seq, count);
+            }
+            counts[shard] = count;
+        });
+        return normalizeProfile(counts, packed.size);
+    }
+
+    /**
+     * Adds symbols of packed sequence seq to profile counts, reading whole words at once
+     */
+    public static void countProfile(PackedSequences packed, int seq, int[][] count) {
+        int l = packed.maxLength;
+        int offset = seq * packed.wordsPerSequence;
+        long[] mask = packed.masks[seq];
+        for (int w = 0; w < packed.wordsPerSequence; w++) {
+            long word = packed.words[offset + w];
+            long maskWord = mask == null ? 0 : mask[w];
+            int from = w * PackedSequences.BASES_PER_WORD;
+            int to = Math.min(l, from + PackedSequences.BASES_PER_WORD);
+            for (int i = from; i < to; i++, word >>>= 2, maskWord >>>= 2) {
+                if ((maskWord & 1) == 0) {
+                    count[(int) (word & 3)][i]++;
                 }
             }
         }
-        double[][] result = new double[alphabet.length()][l];
-        for (int i = 0; i < alphabet.length(); i++) {
+    }
+
+    /**
+     * Sums partial counts of shards and divides them by the number of sequences
+     */
+    public static double[][] normalizeProfile(int[][][] counts, int sequencesNumber) {
+        int alphabetLength = counts[0].length;
+        int l = counts[0][0].length;
+        double[][] result = new double[alphabetLength][l];
+        for (int[][] count : counts) {
+            for (int i = 0; i < alphabetLength; i++) {
+                for (int j = 0; j < l; j++) {
+                    result[i][j] += count[i][j];
+                }
+            }
+        }
+        for (int i = 0; i < alphabetLength; i++) {
             for (int j = 0; j < l; j++) {
-                result[i][j] = count[i][j] / (double) sequences.length;
+                result[i][j] /= sequencesNumber;
             }
         }
         return result;
     }
 
-
     /**
      * Append missing characters to string so they have the same size
      */
     public static String[] stringsForHamming(String[] sequences) {
-        int max = Arrays.stream(sequences).mapToInt(String::length).max().getAsInt();
+        return stringsForHamming(sequences, Arrays.stream(sequences).mapToInt(String::length).max().getAsInt());
+    }
+
+    /**
+     * Append missing characters to strings so they have given size, for example the size of sequences of other samples.
+     *
+     * @throws IllegalArgumentException if some string is longer
+     */
+    public static String[] stringsForHamming(String[] sequences, int max) {
+        for (String sequence : sequences) {
+            if (sequence.length() > max) {
+                throw new IllegalArgumentException("Sequence is longer than " + max);
+            }
+        }
         String[] result = new String[sequences.length];
         if (max > 3000) {
             for (int i = 0; i < sequences.length; i++) {
@@ -1,12 +1,18 @@
 package by.bsu.util.builders;
 
+import by.bsu.model.AbstractKMerDict;
+import by.bsu.model.InvertedIndex;
 import by.bsu.model.KMerDict;
+import by.bsu.model.PackedSequences;
 import by.bsu.model.Sample;
+import by.bsu.model.SampleSketch;
+import by.bsu.util.AlgorithmUtils;
 import by.bsu.util.Utils;
-import com.carrotsearch.hppc.IntScatterSet;
+import com.carrotsearch.hppc.LongArrayList;
 import com.carrotsearch.hppc.LongScatterSet;
+import com.carrotsearch.hppc.cursors.LongCursor;
 
-import java.util.HashMap;
+import java.util.Arrays;
 
 import static by.bsu.util.Utils.convertLetterToDigit;
 
@@ -16,57 +22,363 @@ import static by.bsu.util.Utils.convertLetterToDigit;
 public class KMerDictBuilder {
 
     public static KMerDict getDict(Sample sample, int l){
+        return getDict(sample, l, 1, false);
+    }
+
+    /**
+     * Sequences are split into contiguous shards, each shard builds its own part of dictionary on separate thread
+     * and parts are merged in the order of shards, so result is the same as for one thread
+     *
+     * @param withProfile if true sample profile is counted in the same pass and stored in {@link KMerDict#profile}
+     */
+    public static KMerDict getDict(Sample sample, int l, int threads, boolean withProfile) {
+        return getDict(sample, l, sample.length(0), threads, withProfile);
+    }
+
+    /**
+     * Builds dictionary with chunks of given sequences length, for example the length of sample these sequences are
+     * appended to
+     */
+    private static KMerDict getDict(Sample sample, int l, int sequencesLength, int threads, boolean withProfile) {
         KMerDict result = new KMerDict();
         result.sampleName = sample.name;
         result.l = l;
-        result.sequencesLength = sample.sequences[0].length();
+        result.sequencesLength = sequencesLength;
         result.chunksCount = result.sequencesLength / l;
-
         result.sequencesNumber = sample.sequences.length;
-        result.wholeSampleChunksHashesList = new LongScatterSet[result.chunksCount];
         result.sequenceChunksHashesList = new long[sample.sequences.length][];
-        result.allHashesSet = new LongScatterSet();
-        for (int i = 0; i < result.chunksCount; i++) {
-            result.wholeSampleChunksHashesList[i] = new LongScatterSet();
+
+        int shards = Math.max(1, Math.min(threads, sample.sequences.length));
+        Shard[] parts = new Shard[shards];
+        int profileLength = withProfile ? profileLength(sample) : 0;
+        AlgorithmUtils.runShards(threads, shards, shard -> parts[shard] = buildShard(sample, l, result,
+                AlgorithmUtils.shardStart(shard, shards, sample.sequences.length),
+                AlgorithmUtils.shardStart(shard + 1, shards, sample.sequences.length),
+                profileLength));
+
+        //merge: shards hold consecutive sequences, so their hashes are just concatenated
+        int[] starts = new int[sample.sequences.length + 1];
+        int total = 0;
+        for (Shard part : parts) {
+            total += part.hashes.size();
+        }
+        long[] sequencesHashes = new long[total];
+        int offset = 0;
+        for (Shard part : parts) {
+            System.arraycopy(part.hashes.buffer, 0, sequencesHashes, offset, part.hashes.size());
+            for (int seq = part.from; seq < part.to; seq++) {
+                starts[seq + 1] = offset + part.starts[seq - part.from + 1];
+            }
+            offset += part.hashes.size();
+        }
+        result.wholeSampleChunksHashesList = new LongScatterSet[result.chunksCount];
+        AlgorithmUtils.runShards(threads, shards, shard -> {
+            int to = AlgorithmUtils.shardStart(shard + 1, shards, result.chunksCount);
+            for (int i = AlgorithmUtils.shardStart(shard, shards, result.chunksCount); i < to; i++) {
+                LongScatterSet positionHashes = new LongScatterSet();
+                for (Shard part : parts) {
+                    positionHashes.addAll(part.positionHashes[i]);
+                }
+                result.wholeSampleChunksHashesList[i] = positionHashes;
+            }
+        });
+        result.hashToSequencesIndex = buildIndex(sequencesHashes, starts, sample.sequences.length, threads);
+        //every distinct l-mer of the sample is a key of the index
+        LongScatterSet allHashes = new LongScatterSet(result.hashToSequencesIndex.size());
+        allHashes.addAll(result.hashToSequencesIndex.hashes);
+        result.allHashesSet = allHashes;
+        if (withProfile) {
+            int[][][] counts = new int[shards][][];
+            for (int shard = 0; shard < shards; shard++) {
+                counts[shard] = parts[shard].profile;
+            }
+            result.profile = Utils.normalizeProfile(counts, sample.sequences.length);
+        }
+        fillChunksOrder(result, threads);
+        result.sketch = SampleSketch.of(result);
+        return result;
+    }
+
+    /**
+     * Combines indexes of several samples into one: sequence seq of sample s gets number offsets[s] + seq,
+     * so postings of each hash are sorted by sample and then by sequence.
+     * Only the index, the number of sequences and the largest chunks count are filled
+     *
+     * @param offsets offsets[s] is the number of sequences in samples before s, offsets[dicts.length] is the total
+     */
+    public static KMerDict getMultiDict(KMerDict[] dicts, int[] offsets, int threads) {
+        int keysTotal = 0;
+        int postingsTotal = 0;
+        for (KMerDict dict : dicts) {
+            keysTotal += dict.hashToSequencesIndex.size();
+            postingsTotal += dict.hashToSequencesIndex.postings.length;
+        }
+        long[] sorted = new long[keysTotal];
+        int last = 0;
+        for (KMerDict dict : dicts) {
+            System.arraycopy(dict.hashToSequencesIndex.hashes, 0, sorted, last, dict.hashToSequencesIndex.size());
+            last += dict.hashToSequencesIndex.size();
+        }
+        if (threads > 1) {
+            Arrays.parallelSort(sorted);
+        } else {
+            Arrays.sort(sorted);
+        }
+        int unique = 0;
+        for (int i = 0; i < keysTotal; i++) {
+            if (i == 0 || sorted[i] != sorted[i - 1]) {
+                sorted[unique++] = sorted[i];
+            }
+        }
+        long[] keys = Arrays.copyOf(sorted, unique);
+        //position of each hash of each sample in combined keys
+        int[][] positions = new int[dicts.length][];
+        int shards = Math.max(1, Math.min(threads, dicts.length));
+        AlgorithmUtils.runShards(threads, shards, shard -> {
+            int to = AlgorithmUtils.shardStart(shard + 1, shards, dicts.length);
+            for (int s = AlgorithmUtils.shardStart(shard, shards, dicts.length); s < to; s++) {
+                InvertedIndex index = dicts[s].hashToSequencesIndex;
+                positions[s] = new int[index.size()];
+                for (int i = 0; i < index.size(); i++) {
+                    positions[s][i] = Arrays.binarySearch(keys, index.hashes[i]);
+                }
+            }
+        });
+        int[] keyOffsets = new int[unique + 1];
+        for (int s = 0; s < dicts.length; s++) {
+            InvertedIndex index = dicts[s].hashToSequencesIndex;
+            for (int i = 0; i < index.size(); i++) {
+                keyOffsets[positions[s][i] + 1] += index.size(i);
+            }
+        }
+        for (int i = 0; i < unique; i++) {
+            keyOffsets[i + 1] += keyOffsets[i];
         }
+        int[] cursor = Arrays.copyOf(keyOffsets, unique);
+        int[] postings = new int[postingsTotal];
+        for (int s = 0; s < dicts.length; s++) {
+            InvertedIndex index = dicts[s].hashToSequencesIndex;
+            for (int i = 0; i < index.size(); i++) {
+                int position = positions[s][i];
+                for (int p = index.start(i); p < index.end(i); p++) {
+                    postings[cursor[position]++] = offsets[s] + index.postings[p];
+                }
+            }
+        }
+        KMerDict result = new KMerDict();
+        result.sampleName = "multi";
+        result.l = dicts.length > 0 ? dicts[0].l : 0;
+        result.sequencesNumber = offsets[dicts.length];
+        for (KMerDict dict : dicts) {
+            result.chunksCount = Math.max(result.chunksCount, dict.chunksCount);
+        }
+        result.hashToSequencesIndex = new InvertedIndex(keys, keyOffsets, postings);
+        return result;
+    }
+
+    /**
+     * Adds sequences of delta sample to dictionary, they get numbers after sequences of dictionary.
+     * Dictionary of delta is built with the same chunks and merged with postings of dictionary
+     * (see {@link #getMultiDict}), so existing sequences are not hashed again.
+     * Sets of hashes are extended only if dictionary has them (it is not restored from snapshot)
+     */
+    public static void append(KMerDict dict, Sample delta, int threads) {
+        KMerDict deltaDict = getDict(delta, dict.l, dict.sequencesLength, threads, false);
+        int[] offsets = {0, dict.sequencesNumber, dict.sequencesNumber + deltaDict.sequencesNumber};
+        dict.hashToSequencesIndex = getMultiDict(new KMerDict[]{dict, deltaDict}, offsets, threads).hashToSequencesIndex;
+        appendCommon(dict, deltaDict, threads);
+    }
 
-        result.hashToSequencesMap = new HashMap<>(result.sequencesNumber);
-        for (int seq = 0; seq < sample.sequences.length; seq++) {
+    /**
+     * Appends per sequence hashes, sets of hashes and sketch of delta dictionary and sorts chunks again,
+     * as sizes of postings have changed. Postings should be merged already
+     */
+    static void appendCommon(AbstractKMerDict dict, AbstractKMerDict delta, int threads) {
+        int size = dict.sequencesNumber;
+        dict.sequenceChunksHashesList = Arrays.copyOf(dict.sequenceChunksHashesList, size + delta.sequencesNumber);
+        System.arraycopy(delta.sequenceChunksHashesList, 0, dict.sequenceChunksHashesList, size, delta.sequencesNumber);
+        dict.sequencesNumber = size + delta.sequencesNumber;
+        if (dict.wholeSampleChunksHashesList != null && dict.allHashesSet != null) {
+            for (int i = 0; i < dict.chunksCount; i++) {
+                for (LongCursor hash : delta.wholeSampleChunksHashesList[i]) {
+                    dict.wholeSampleChunksHashesList[i].add(hash.value);
+                }
+            }
+            for (LongCursor hash : delta.allHashesSet) {
+                dict.allHashesSet.add(hash.value);
+            }
+            dict.sketch = SampleSketch.of(dict);
+        } else {
+            dict.sketch = SampleSketch.union(dict.sketch, delta.sketch);
+        }
+        fillChunksOrder(dict, threads);
+    }
+
+    /**
+     * Sorts chunks of each sequence by the size of their postings once, so searchers don't sort them for every read
+     */
+    static void fillChunksOrder(AbstractKMerDict dict, int threads) {
+        if (dict.chunksCount > Short.MAX_VALUE) {
+            throw new IllegalArgumentException("Too many chunks in sequence: " + dict.chunksCount);
+        }
+        dict.chunksOrder = new short[dict.sequencesNumber][];
+        int shards = Math.max(1, Math.min(threads, dict.sequencesNumber));
+        AlgorithmUtils.runShards(threads, shards, shard -> {
+            long[] scratch = new long[dict.chunksCount];
+            short[] order = new short[dict.chunksCount];
+            int to = AlgorithmUtils.shardStart(shard + 1, shards, dict.sequencesNumber);
+            for (int seq = AlgorithmUtils.shardStart(shard, shards, dict.sequencesNumber); seq < to; seq++) {
+                int count = dict.sortChunks(seq, dict, scratch, order);
+                dict.chunksOrder[seq] = Arrays.copyOf(order, count);
+            }
+        });
+    }
+
+    /**
+     * Partial dictionary of sequences [from, to)
+     */
+    private static class Shard {
+        int from;
+        int to;
+        /**
+         * Sorted unique hashes of each sequence, sequence seq has hashes[starts[seq - from]..starts[seq - from + 1])
+         */
+        LongArrayList hashes = new LongArrayList();
+        int[] starts;
+        LongScatterSet[] positionHashes;
+        int[][] profile;
+    }
+
+    /**
+     * First pass over shard: sorted unique l-mers of each sequence and l-mers on fixed positions.
+     * Rows of sequenceChunksHashesList are written directly, as shards do not intersect
+     */
+    private static Shard buildShard(Sample sample, int l, KMerDict result, int from, int to, int profileLength) {
+        Shard shard = new Shard();
+        shard.from = from;
+        shard.to = to;
+        shard.starts = new int[to - from + 1];
+        shard.positionHashes = new LongScatterSet[result.chunksCount];
+        for (int i = 0; i < result.chunksCount; i++) {
+            shard.positionHashes[i] = new LongScatterSet();
+        }
+        if (profileLength > 0) {
+            shard.profile = new int[Utils.DEFAULT_ALPHABET.length()][profileLength];
+        }
+        PackedSequences packed = sample.packed;
+        long[] hashes = new long[0];
+        for (int seq = from; seq < to; seq++) {
             String sequence = sample.sequences[seq];
+            int length = packed != null ? packed.lengths[seq] : sequence.length();
+            if (hashes.length < length - l + 1) {
+                hashes = new long[length - l + 1];
+            }
             long hashValue = 0;
             for (int j = 0; j < l; j++) {
                 hashValue *= 4;
-                hashValue += convertLetterToDigit(sequence.charAt(j));
+                hashValue += digit(packed, sequence, seq, j);
             }
             result.sequenceChunksHashesList[seq] = new long[result.chunksCount];
             result.sequenceChunksHashesList[seq][0] = hashValue;
-            result.wholeSampleChunksHashesList[0].add(hashValue);
-            if (!result.hashToSequencesMap.containsKey(hashValue)){
-                result.hashToSequencesMap.put(hashValue, new IntScatterSet());
-            }
-            result.hashToSequencesMap.get(hashValue).add(seq);
-            result.allHashesSet.add(hashValue);
-            for (int j = 1; j < sequence.length() - l +1; j++) {
-                hashValue -= ((long)convertLetterToDigit(sequence.charAt(j-1))) << 2 * (l-1);
+            shard.positionHashes[0].add(hashValue);
+            hashes[0] = hashValue;
+            for (int j = 1; j < length - l +1; j++) {
+                hashValue -= ((long)digit(packed, sequence, seq, j-1)) << 2 * (l-1);
                 hashValue <<= 2;
-                hashValue += convertLetterToDigit(sequence.charAt(j+l -1));
-                if (!result.hashToSequencesMap.containsKey(hashValue)){
-                    result.hashToSequencesMap.put(hashValue, new IntScatterSet());
-                }
-                result.hashToSequencesMap.get(hashValue).add(seq);
-                result.allHashesSet.add(hashValue);
-                if (j % l == 0){
+                hashValue += digit(packed, sequence, seq, j+l -1);
+                hashes[j] = hashValue;
+                //longer sequences have more l-mers than chunks
+                if (j % l == 0 && j / l < result.chunksCount) {
                     result.sequenceChunksHashesList[seq][j/l] = hashValue;
-                    result.wholeSampleChunksHashesList[j/l].add(hashValue);
+                    shard.positionHashes[j/l].add(hashValue);
+                }
+            }
+            if (shard.profile != null) {
+                if (packed != null) {
+                    Utils.countProfile(packed, seq, shard.profile);
+                } else {
+                    Utils.countProfile(sequence, Utils.DEFAULT_ALPHABET, shard.profile);
                 }
             }
+            Arrays.sort(hashes, 0, length - l + 1);
+            for (int j = 0; j < length - l + 1; j++) {
+                if (j == 0 || hashes[j] != hashes[j - 1]) {
+                    shard.hashes.add(hashes[j]);
+                }
+            }
+            shard.starts[seq - from + 1] = shard.hashes.size();
+        }
+        return shard;
+    }
+
+    private static int profileLength(Sample sample) {
+        if (sample.packed != null) {
+            return sample.packed.maxLength;
+        }
+        int result = 0;
+        for (String sequence : sample.sequences) {
+            result = Math.max(result, sequence.length());
         }
         return result;
     }
 
+    /**
+     * Second pass: collects distinct hashes, counts postings of each hash and fills postings in the order of sequences,
+     * so each posting list is sorted
+     *
+     * @param sequencesHashes sorted unique hashes of sequence seq are in [starts[seq], starts[seq + 1])
+     * @param threads         threads to sort hashes and to find their positions
+     */
+    static InvertedIndex buildIndex(long[] sequencesHashes, int[] starts, int sequencesNumber, int threads) {
+        int total = starts[sequencesNumber];
+        long[] sorted = Arrays.copyOf(sequencesHashes, total);
+        if (threads > 1) {
+            Arrays.parallelSort(sorted);
+        } else {
+            Arrays.sort(sorted);
+        }
+        int unique = 0;
+        for (int i = 0; i < total; i++) {
+            if (i == 0 || sorted[i] != sorted[i - 1]) {
+                sorted[unique++] = sorted[i];
+            }
+        }
+        long[] keys = Arrays.copyOf(sorted, unique);
+        int[] positions = new int[total];
+        int shards = Math.max(1, Math.min(threads, total));
+        AlgorithmUtils.runShards(threads, shards, shard -> {
+            int to = AlgorithmUtils.shardStart(shard + 1, shards, total);
+            for (int i = AlgorithmUtils.shardStart(shard, shards, total); i < to; i++) {
+                positions[i] = Arrays.binarySearch(keys, sequencesHashes[i]);
+            }
+        });
+        int[] offsets = new int[unique + 1];
+        for (int i = 0; i < total; i++) {
+            offsets[positions[i] + 1]++;
+        }
+        for (int i = 0; i < unique; i++) {
+            offsets[i + 1] += offsets[i];
+        }
+        int[] cursor = Arrays.copyOf(offsets, unique);
+        int[] postings = new int[total];
+        for (int seq = 0; seq < sequencesNumber; seq++) {
+            for (int i = starts[seq]; i < starts[seq + 1]; i++) {
+                postings[cursor[positions[i]]++] = seq;
+            }
+        }
+        return new InvertedIndex(keys, offsets, postings);
+    }
+
+    /**
+     * Reads digit from packed sequences if sample has them, so the string is not touched
+     */
+    private static int digit(PackedSequences packed, String sequence, int seq, int position) {
+        return packed != null ? packed.digit(seq, position) : convertLetterToDigit(sequence.charAt(position));
+    }
+
     public static KMerDict getDict(Sample sample, int l, int threshold){
         KMerDict result = getDict(sample, l);
-        sample.consensus = Utils.consensus(sample.sequences);
+        sample.consensus = Utils.consensus(sample);
         return result;
     }
 }
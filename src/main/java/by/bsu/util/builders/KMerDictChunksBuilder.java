@@ -2,18 +2,22 @@ package by.bsu.util.builders;
 
 import static by.bsu.util.Utils.getHashValue;
 
-import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
 import java.util.function.Function;
 
+import by.bsu.model.PostingList;
+import by.bsu.util.AlgorithmUtils;
 import by.bsu.util.Utils;
+import com.carrotsearch.hppc.IntArrayList;
+import com.carrotsearch.hppc.LongObjectHashMap;
+import com.carrotsearch.hppc.LongObjectMap;
 import com.carrotsearch.hppc.LongScatterSet;
+import com.carrotsearch.hppc.LongSet;
 
 import by.bsu.model.KMerDictChunks;
 import by.bsu.model.Sample;
+import by.bsu.model.SampleSketch;
+import com.carrotsearch.hppc.cursors.LongObjectCursor;
 
 /**
  * Created by c5239200 on 6/26/17.
@@ -28,7 +32,7 @@ public class KMerDictChunksBuilder {
     public static KMerDictChunks getDict(Sample sample, int l, String alphabet) {
         KMerDictChunks result = new KMerDictChunks();
         result.l = l;
-        result.sequencesLength = sample.sequences[0].length();
+        result.sequencesLength = sample.length(0);
         result.chunksCount = result.sequencesLength / l;
         return get(result, sample, r -> r * l, r -> l, alphabet);
     }
@@ -41,59 +45,182 @@ public class KMerDictChunksBuilder {
      * Calculates chunks based on sample profile entropy
      */
     public static KMerDictChunks getDict(Sample sample, int chunksCount, double[][] profile, String alphabet) {
-        KMerDictChunks result = new KMerDictChunks();
-        result.chunksCount = chunksCount;
-        int[] chunkEnds = getChunksEnds(chunksCount, sample.sequences[0].length(), profile, alphabet);
-        return get(result, sample, r -> r == 0 ? 0 : chunkEnds[r - 1], r -> r == 0 ? chunkEnds[r] : chunkEnds[r] - chunkEnds[r - 1], alphabet);
+        return getDict(sample, chunksCount, profile, alphabet, 1);
     }
 
     public static KMerDictChunks getDict(Sample sample, int chunksCount, double[][] profile) {
         return getDict(sample, chunksCount, profile, Utils.DEFAULT_ALPHABET);
     }
 
+    /**
+     * Builds entropy-based chunks dictionary on given amount of threads.
+     * If profile is null it is counted on the same threads and stored in {@link KMerDictChunks#profile}
+     */
+    public static KMerDictChunks getDict(Sample sample, int chunksCount, double[][] profile, String alphabet, int threads) {
+        KMerDictChunks result = new KMerDictChunks();
+        result.chunksCount = chunksCount;
+        result.sequencesLength = sample.length(0);
+        if (profile == null) {
+            profile = Utils.profile(sample, alphabet, threads);
+            result.profile = profile;
+        }
+        int[] chunkEnds = getChunksEnds(chunksCount, sample.length(0), profile, alphabet);
+        return get(result, sample, r -> r == 0 ? 0 : chunkEnds[r - 1], r -> r == 0 ? chunkEnds[r] : chunkEnds[r] - chunkEnds[r - 1], alphabet, threads);
+    }
+
     private static KMerDictChunks get(KMerDictChunks result, Sample sample, Function<Integer, Integer> leftSymbol, Function<Integer, Integer> rightSymbol, String alphabet) {
+        return get(result, sample, leftSymbol, rightSymbol, alphabet, 1);
+    }
+
+    /**
+     * Hashes of chunks are calculated for shards of sequences, then each thread builds maps for its own chunk positions,
+     * so no synchronization is needed and sequences are added to posting lists in increasing order
+     */
+    private static KMerDictChunks get(KMerDictChunks result, Sample sample, Function<Integer, Integer> leftSymbol, Function<Integer, Integer> rightSymbol, String alphabet, int threads) {
         result.sampleName = sample.name;
         result.sequencesNumber = sample.sequences.length;
         result.wholeSampleChunksHashesList = new LongScatterSet[result.chunksCount];
         result.sequenceChunksHashesList = new long[sample.sequences.length][];
-        result.allHashesSet = new LongScatterSet();
+        int[] lefts = new int[result.chunksCount];
+        int[] lengths = new int[result.chunksCount];
         for (int i = 0; i < result.chunksCount; i++) {
-            result.wholeSampleChunksHashesList[i] = new LongScatterSet();
+            lefts[i] = leftSymbol.apply(i);
+            lengths[i] = rightSymbol.apply(i);
         }
+        //packed sequences store only digits of default alphabet
+        boolean packed = sample.packed != null && Utils.DEFAULT_ALPHABET.equals(alphabet);
+        int sequenceShards = Math.max(1, Math.min(threads, sample.sequences.length));
+        AlgorithmUtils.runShards(threads, sequenceShards, shard -> {
+            int to = AlgorithmUtils.shardStart(shard + 1, sequenceShards, sample.sequences.length);
+            for (int seq = AlgorithmUtils.shardStart(shard, sequenceShards, sample.sequences.length); seq < to; seq++) {
+                long[] hashes = new long[result.chunksCount];
+                String sequence = packed ? null : sample.sequence(seq);
+                for (int i = 0; i < result.chunksCount; i++) {
+                    hashes[i] = packed
+                            ? sample.packed.hash(seq, lefts[i], lengths[i])
+                            : getHashValue(lefts[i], lengths[i], sequence, alphabet);
+                }
+                result.sequenceChunksHashesList[seq] = hashes;
+            }
+        });
 
-        result.chunksHashToSequencesMap = new HashMap[result.chunksCount];
-        result.chunksHashToSequencesMapArray = new HashMap[result.chunksCount];
-        for (int i = 0; i < result.chunksCount; i++) {
-            result.chunksHashToSequencesMap[i] = new HashMap<>();
-            result.chunksHashToSequencesMapArray[i] = new HashMap<>();
-        }
-        for (int seq = 0; seq < sample.sequences.length; seq++) {
-            result.sequenceChunksHashesList[seq] = new long[result.chunksCount];
-            for (int i = 0; i < result.chunksCount; i++) {
-                long hashValue = getHashValue(leftSymbol.apply(i), rightSymbol.apply(i), sample.sequences[seq], alphabet);
-                result.sequenceChunksHashesList[seq][i] = hashValue;
-                result.wholeSampleChunksHashesList[i].add(hashValue);
-                if (!result.chunksHashToSequencesMap[i].containsKey(hashValue)) {
-                    result.chunksHashToSequencesMap[i].put(hashValue, new byte[sample.sequences.length]);
+        result.chunksHashToSequences = KMerDictChunks.newChunksHashToSequences(result.chunksCount);
+        int positionShards = Math.max(1, Math.min(threads, result.chunksCount));
+        AlgorithmUtils.runShards(threads, positionShards, shard -> {
+            int to = AlgorithmUtils.shardStart(shard + 1, positionShards, result.chunksCount);
+            for (int i = AlgorithmUtils.shardStart(shard, positionShards, result.chunksCount); i < to; i++) {
+                LongObjectMap<IntArrayList> postings = new LongObjectHashMap<>();
+                for (int seq = 0; seq < sample.sequences.length; seq++) {
+                    long hashValue = result.sequenceChunksHashesList[seq][i];
+                    IntArrayList list = postings.get(hashValue);
+                    if (list == null) {
+                        list = new IntArrayList(2);
+                        postings.put(hashValue, list);
+                    }
+                    list.add(seq);
                 }
-                result.chunksHashToSequencesMap[i].get(hashValue)[seq] = 1;
-                result.allHashesSet.add(hashValue);
+                LongScatterSet positionHashes = new LongScatterSet(postings.size());
+                LongObjectMap<PostingList> lists = new LongObjectHashMap<>(postings.size());
+                for (LongObjectCursor<IntArrayList> entry : postings) {
+                    positionHashes.add(entry.key);
+                    lists.put(entry.key, PostingList.of(entry.value.buffer, entry.value.size(), result.sequencesNumber));
+                }
+                result.wholeSampleChunksHashesList[i] = positionHashes;
+                result.chunksHashToSequences[i] = lists;
             }
+        });
+        LongScatterSet allHashes = new LongScatterSet();
+        for (LongSet positionHashes : result.wholeSampleChunksHashesList) {
+            allHashes.addAll(positionHashes);
         }
-        for (int i = 0; i < result.chunksHashToSequencesMap.length; i++) {
-            for (Map.Entry<Long, byte[]> entry : result.chunksHashToSequencesMap[i].entrySet()) {
-                List<Integer> tmp = new ArrayList<>();
-                final int[] j = {0};
-                for (int k = 0; k < entry.getValue().length; k++) {
-                    if (entry.getValue()[k] == 1) {
-                        tmp.add(k);
+        result.allHashesSet = allHashes;
+        KMerDictBuilder.fillChunksOrder(result, threads);
+        result.sketch = SampleSketch.of(result);
+        return result;
+    }
+
+    /**
+     * Adds sequences of delta sample to dictionary, they get numbers after sequences of dictionary.
+     * Chunks of delta are taken on the same positions: equal ones of length l or entropy-based ones found
+     * from profile of dictionary. Only posting lists of hashes that delta has are rebuilt
+     *
+     * @throws IllegalArgumentException if dictionary has entropy-based chunks, but no profile
+     */
+    public static void append(KMerDictChunks dict, Sample delta, int threads) {
+        KMerDictChunks deltaDict = new KMerDictChunks();
+        deltaDict.l = dict.l;
+        deltaDict.chunksCount = dict.chunksCount;
+        deltaDict.sequencesLength = dict.sequencesLength;
+        if (dict.l > 0) {
+            get(deltaDict, delta, r -> r * dict.l, r -> dict.l, Utils.DEFAULT_ALPHABET, threads);
+        } else {
+            if (dict.profile == null) {
+                throw new IllegalArgumentException("Dictionary has no profile to find its chunks");
+            }
+            int[] chunkEnds = getChunksEnds(dict.chunksCount, dict.sequencesLength, dict.profile, Utils.DEFAULT_ALPHABET);
+            get(deltaDict, delta, r -> r == 0 ? 0 : chunkEnds[r - 1], r -> r == 0 ? chunkEnds[r] : chunkEnds[r] - chunkEnds[r - 1], Utils.DEFAULT_ALPHABET, threads);
+        }
+        int size = dict.sequencesNumber;
+        int universe = size + deltaDict.sequencesNumber;
+        int positionShards = Math.max(1, Math.min(threads, dict.chunksCount));
+        AlgorithmUtils.runShards(threads, positionShards, shard -> {
+            int to = AlgorithmUtils.shardStart(shard + 1, positionShards, dict.chunksCount);
+            for (int i = AlgorithmUtils.shardStart(shard, positionShards, dict.chunksCount); i < to; i++) {
+                LongObjectMap<PostingList> lists = dict.chunksHashToSequences[i];
+                for (LongObjectCursor<PostingList> entry : deltaDict.chunksHashToSequences[i]) {
+                    int[] added = entry.value.toArray();
+                    for (int j = 0; j < added.length; j++) {
+                        added[j] += size;
                     }
+                    PostingList old = lists.get(entry.key);
+                    lists.put(entry.key, old == null ? PostingList.of(added, universe) : old.append(added, added.length, universe));
                 }
-                int[] t = new int[tmp.size()];
-                tmp.forEach(e -> t[j[0]++] = e);
-                result.chunksHashToSequencesMapArray[i].put(entry.getKey(), t);
             }
+        });
+        KMerDictBuilder.appendCommon(dict, deltaDict, threads);
+    }
+
+    /**
+     * Combines dictionaries of several samples into one, see {@link KMerDictBuilder#getMultiDict}.
+     * Only posting lists of chunk positions, the number of sequences and the largest chunks count are filled
+     */
+    public static KMerDictChunks getMultiDict(KMerDictChunks[] dicts, int[] offsets, int threads) {
+        KMerDictChunks result = new KMerDictChunks();
+        result.sampleName = "multi";
+        result.l = dicts.length > 0 ? dicts[0].l : 0;
+        result.sequencesNumber = offsets[dicts.length];
+        for (KMerDictChunks dict : dicts) {
+            result.chunksCount = Math.max(result.chunksCount, dict.chunksCount);
         }
+        result.chunksHashToSequences = KMerDictChunks.newChunksHashToSequences(result.chunksCount);
+        int positionShards = Math.max(1, Math.min(threads, result.chunksCount));
+        AlgorithmUtils.runShards(threads, positionShards, shard -> {
+            int to = AlgorithmUtils.shardStart(shard + 1, positionShards, result.chunksCount);
+            for (int i = AlgorithmUtils.shardStart(shard, positionShards, result.chunksCount); i < to; i++) {
+                //samples are taken in order, so lists stay sorted
+                LongObjectMap<IntArrayList> postings = new LongObjectHashMap<>();
+                for (int s = 0; s < dicts.length; s++) {
+                    if (dicts[s].chunksCount <= i) {
+                        continue;
+                    }
+                    for (LongObjectCursor<PostingList> entry : dicts[s].chunksHashToSequences[i]) {
+                        IntArrayList list = postings.get(entry.key);
+                        if (list == null) {
+                            list = new IntArrayList(entry.value.size());
+                            postings.put(entry.key, list);
+                        }
+                        for (int seq : entry.value.toArray()) {
+                            list.add(offsets[s] + seq);
+                        }
+                    }
+                }
+                LongObjectMap<PostingList> lists = new LongObjectHashMap<>(postings.size());
+                for (LongObjectCursor<IntArrayList> entry : postings) {
+                    lists.put(entry.key, PostingList.of(entry.value.buffer, entry.value.size(), result.sequencesNumber));
+                }
+                result.chunksHashToSequences[i] = lists;
+            }
+        });
         return result;
     }
 
@@ -0,0 +1,163 @@
+package by.bsu.util.output;
+
+import com.carrotsearch.hppc.LongArrayList;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Per-thread buffer of found pairs encoded in output format, see {@link EdgeWriter}.
+ * Text format is "i j\n" or "i j d\n". Binary format groups pairs by i into blocks:
+ * varint i, varint count, then for each j in increasing order varint of difference with previous j
+ * (with 0 for the first one) and varint d if distances are written.
+ * <p>
+ * Buffer created by {@link EdgeWriter#newBuffer()} encodes pairs into pooled direct buffers of the writer
+ * and hands filled ones to its queue, buffer created by constructor grows on heap until it is written.
+ * Buffers are handed over only on the bounds of lines and blocks, so output of different threads is not mixed.
+ */
+public class EdgeBuffer {
+
+    private static final int HEAP_SIZE = 1 << 12;
+
+    public final boolean binary;
+    public final boolean distances;
+    private final EdgeWriter writer;
+    private ByteBuffer bytes;
+
+    private int blockFirst = -1;
+    /**
+     * Pairs of current block as j << 32 | d, so sorting gives increasing j
+     */
+    private final LongArrayList block = new LongArrayList();
+
+    public EdgeBuffer(boolean binary, boolean distances) {
+        this(null, binary, distances);
+    }
+
+    EdgeBuffer(EdgeWriter writer, boolean binary, boolean distances) {
+        this.writer = writer;
+        this.binary = binary;
+        this.distances = distances;
+        this.bytes = writer != null ? writer.acquire(0) : ByteBuffer.allocate(HEAP_SIZE);
+    }
+
+    public void add(int i, int j) {
+        add(i, j, 0);
+    }
+
+    /**
+     * Adds pair (i, j) with distance d, distance is ignored if output has no distances
+     */
+    public void add(int i, int j, int d) {
+        if (!binary) {
+            reserve(36);
+            writeDecimal(i);
+            bytes.put((byte) ' ');
+            writeDecimal(j);
+            if (distances) {
+                bytes.put((byte) ' ');
+                writeDecimal(d);
+            }
+            bytes.put((byte) '\n');
+            return;
+        }
+        if (i != blockFirst) {
+            endBlock();
+            blockFirst = i;
+        }
+        block.add(((long) j << 32) | d);
+    }
+
+    /**
+     * The number of encoded bytes that are not handed to writer yet, pairs of not finished binary block are not counted
+     */
+    public int size() {
+        return bytes.position();
+    }
+
+    public boolean isEmpty() {
+        return bytes.position() == 0 && block.isEmpty();
+    }
+
+    /**
+     * Encodes pending binary block, so all added pairs are in the bytes
+     */
+    void endBlock() {
+        if (block.isEmpty()) {
+            return;
+        }
+        int count = block.size();
+        long[] pairs = block.buffer;
+        Arrays.sort(pairs, 0, count);
+        reserve(10 + count * (distances ? 10 : 5));
+        writeVarint(blockFirst);
+        writeVarint(count);
+        int previous = 0;
+        for (int p = 0; p < count; p++) {
+            int j = (int) (pairs[p] >>> 32);
+            writeVarint(j - previous);
+            previous = j;
+            if (distances) {
+                writeVarint((int) pairs[p]);
+            }
+        }
+        block.clear();
+        blockFirst = -1;
+    }
+
+    /**
+     * Returns encoded bytes and starts a new buffer
+     */
+    ByteBuffer take() {
+        ByteBuffer result = bytes;
+        bytes = writer != null ? writer.acquire(0) : ByteBuffer.allocate(HEAP_SIZE);
+        return result;
+    }
+
+    private void writeVarint(int value) {
+        while ((value & ~0x7F) != 0) {
+            bytes.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        bytes.put((byte) value);
+    }
+
+    private void writeDecimal(int value) {
+        if (value == 0) {
+            bytes.put((byte) '0');
+            return;
+        }
+        int digits = 0;
+        for (int v = value; v != 0; v /= 10) {
+            digits++;
+        }
+        int position = bytes.position();
+        for (int p = position + digits - 1; p >= position; p--) {
+            bytes.put(p, (byte) ('0' + value % 10));
+            value /= 10;
+        }
+        bytes.position(position + digits);
+    }
+
+    /**
+     * Makes sure that next n bytes fit, full pooled buffer is handed to writer
+     */
+    private void reserve(int n) {
+        if (bytes.remaining() >= n) {
+            return;
+        }
+        if (writer == null) {
+            ByteBuffer grown = ByteBuffer.allocate(Math.max(bytes.capacity() * 2, bytes.position() + n));
+            bytes.flip();
+            grown.put(bytes);
+            bytes = grown;
+            return;
+        }
+        if (bytes.position() > 0) {
+            writer.submit(bytes);
+        } else {
+            writer.recycle(bytes);
+        }
+        bytes = writer.acquire(n);
+    }
+}
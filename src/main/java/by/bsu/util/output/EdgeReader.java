@@ -0,0 +1,206 @@
+package by.bsu.util.output;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * Streaming reader of output files written by {@link EdgeWriter}. Format is detected by the header,
+ * so text output can be read the same way.
+ * <pre>
+ *  try (EdgeReader reader = EdgeReader.open(path)) {
+ *      while (reader.next()) {
+ *          use(reader.i, reader.j, reader.distance);
+ *      }
+ *  }
+ * </pre>
+ * It can be run as converter: EdgeReader input output [text|binary]
+ */
+public class EdgeReader implements Closeable {
+
+    private final InputStream input;
+    private final byte[] buffer = new byte[1 << 16];
+    private int position;
+    private int limit;
+
+    public final boolean binary;
+    /**
+     * True if file has distances. For text it is known only after the first pair is read
+     */
+    public boolean distances;
+
+    public int i;
+    public int j;
+    /**
+     * Distance of current pair or -1 if file has no distances
+     */
+    public int distance = -1;
+
+    private int blockLeft;
+    private final int[] values = new int[3];
+
+    private EdgeReader(InputStream input) throws IOException {
+        this.input = input;
+        fill();
+        boolean header = limit >= EdgeWriter.MAGIC.length + 2;
+        for (int p = 0; header && p < EdgeWriter.MAGIC.length; p++) {
+            header = buffer[p] == EdgeWriter.MAGIC[p];
+        }
+        binary = header;
+        if (binary) {
+            if (buffer[EdgeWriter.MAGIC.length] != EdgeWriter.VERSION) {
+                throw new IOException("Unsupported output version " + buffer[EdgeWriter.MAGIC.length]);
+            }
+            distances = (buffer[EdgeWriter.MAGIC.length + 1] & EdgeWriter.DISTANCES_FLAG) != 0;
+            position = EdgeWriter.MAGIC.length + 2;
+        }
+    }
+
+    public static EdgeReader open(Path path) throws IOException {
+        return new EdgeReader(Files.newInputStream(path));
+    }
+
+    /**
+     * Reads next pair into i, j and distance, returns false at the end of file
+     */
+    public boolean next() throws IOException {
+        return binary ? nextBinary() : nextText();
+    }
+
+    private boolean nextBinary() throws IOException {
+        if (blockLeft == 0) {
+            if (!hasByte()) {
+                return false;
+            }
+            i = readVarint();
+            blockLeft = readVarint();
+            j = 0;
+        }
+        j += readVarint();
+        if (distances) {
+            distance = readVarint();
+        }
+        blockLeft--;
+        return true;
+    }
+
+    private boolean nextText() throws IOException {
+        while (true) {
+            int count = 0;
+            int value = 0;
+            boolean digits = false;
+            while (true) {
+                if (!hasByte()) {
+                    break;
+                }
+                byte b = buffer[position++];
+                if (b >= '0' && b <= '9') {
+                    value = value * 10 + (b - '0');
+                    digits = true;
+                } else {
+                    if (digits && count < values.length) {
+                        values[count++] = value;
+                    }
+                    value = 0;
+                    digits = false;
+                    if (b == '\n') {
+                        break;
+                    }
+                }
+            }
+            if (digits && count < values.length) {
+                values[count++] = value;
+            }
+            if (count >= 2) {
+                i = values[0];
+                j = values[1];
+                distances = count == 3;
+                distance = distances ? values[2] : -1;
+                return true;
+            }
+            if (!hasByte()) {
+                return false;
+            }
+        }
+    }
+
+    private int readVarint() throws IOException {
+        int result = 0;
+        for (int shift = 0; ; shift += 7) {
+            if (!hasByte()) {
+                throw new IOException("Unexpected end of binary output");
+            }
+            byte b = buffer[position++];
+            result |= (b & 0x7F) << shift;
+            if (b >= 0) {
+                return result;
+            }
+        }
+    }
+
+    private boolean hasByte() throws IOException {
+        if (position < limit) {
+            return true;
+        }
+        fill();
+        return position < limit;
+    }
+
+    private void fill() throws IOException {
+        position = 0;
+        limit = 0;
+        int read;
+        while (limit < buffer.length && (read = input.read(buffer, limit, buffer.length - limit)) != -1) {
+            limit += read;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        input.close();
+    }
+
+    /**
+     * Converts output file to given format and returns the number of pairs
+     */
+    public static long convert(Path from, Path to, boolean binary) throws IOException {
+        long count = 0;
+        try (EdgeReader reader = open(from)) {
+            //distances of text file are known only after the first line
+            boolean hasPair = reader.next();
+            try (EdgeWriter writer = new EdgeWriter(to, binary, reader.distances)) {
+                EdgeBuffer out = writer.newBuffer();
+                while (hasPair) {
+                    out.add(reader.i, reader.j, Math.max(reader.distance, 0));
+                    count++;
+                    if (out.size() > 1 << 20) {
+                        writer.write(out);
+                    }
+                    hasPair = reader.next();
+                }
+                writer.write(out);
+            }
+        }
+        return count;
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.out.println("Usage: EdgeReader input output [text|binary]");
+            System.exit(1);
+        }
+        boolean binary;
+        if (args.length > 2) {
+            binary = args[2].equals("binary");
+        } else {
+            try (EdgeReader reader = open(Paths.get(args[0]))) {
+                binary = !reader.binary;
+            }
+        }
+        long count = convert(Paths.get(args[0]), Paths.get(args[1]), binary);
+        System.out.println("Converted pairs = " + count);
+    }
+}
@@ -0,0 +1,176 @@
+package by.bsu.util.output;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Output file of related pairs. Threads encode pairs into their own {@link EdgeBuffer} and pass filled buffers
+ * to one writer thread through bounded queue, so they wait for disk only if the queue is full.
+ * The writer thread keeps file open, takes all queued buffers at once and writes them with one gathering write,
+ * then returns them to the pool of direct buffers.
+ * <p>
+ * Binary file starts with header: magic "SSJE", format version and flags byte (bit 0 is set if distances are written),
+ * then blocks described in {@link EdgeBuffer} follow. Use {@link EdgeReader} to read or convert it.
+ */
+public class EdgeWriter implements Closeable {
+
+    static final byte[] MAGIC = {'S', 'S', 'J', 'E'};
+    static final byte VERSION = 1;
+    static final byte DISTANCES_FLAG = 1;
+
+    private static final int BUFFER_SIZE = 1 << 18;
+    private static final int QUEUE_SIZE = 64;
+    private static final int MAX_GATHER = 16;
+    private static final ByteBuffer STOP = ByteBuffer.allocate(0);
+
+    public final Path path;
+    public final boolean binary;
+    public final boolean distances;
+    private final FileChannel channel;
+    private final BlockingQueue<ByteBuffer> queue = new ArrayBlockingQueue<>(QUEUE_SIZE);
+    private final ConcurrentLinkedQueue<ByteBuffer> pool = new ConcurrentLinkedQueue<>();
+    private final Thread thread;
+    private volatile IOException failure;
+    private boolean closed;
+
+    public EdgeWriter(Path path, boolean binary, boolean distances) throws IOException {
+        this.path = path;
+        this.binary = binary;
+        this.distances = distances;
+        this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        if (binary) {
+            ByteBuffer header = ByteBuffer.allocate(MAGIC.length + 2);
+            header.put(MAGIC).put(VERSION).put(distances ? DISTANCES_FLAG : 0);
+            header.flip();
+            while (header.hasRemaining()) {
+                channel.write(header);
+            }
+        }
+        thread = new Thread(this::writeQueued, "output-writer-" + path.getFileName());
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public EdgeBuffer newBuffer() {
+        return new EdgeBuffer(this, binary, distances);
+    }
+
+    /**
+     * Hands all pairs of buffer to the writer thread, buffer can be used further
+     */
+    public void write(EdgeBuffer buffer) {
+        buffer.endBlock();
+        if (buffer.size() == 0) {
+            return;
+        }
+        submit(buffer.take());
+    }
+
+    /**
+     * Waits until everything is written and closes file
+     *
+     * @throws IOException if any write failed
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            queue.put(STOP);
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for output");
+        } finally {
+            channel.close();
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * Returns empty buffer that can hold at least n bytes, pooled buffer if n fits into it
+     */
+    ByteBuffer acquire(int n) {
+        if (n > BUFFER_SIZE) {
+            return ByteBuffer.allocateDirect(n);
+        }
+        ByteBuffer buffer = pool.poll();
+        return buffer != null ? buffer : ByteBuffer.allocateDirect(BUFFER_SIZE);
+    }
+
+    void recycle(ByteBuffer buffer) {
+        if (buffer.isDirect() && buffer.capacity() == BUFFER_SIZE) {
+            buffer.clear();
+            pool.offer(buffer);
+        }
+    }
+
+    void submit(ByteBuffer buffer) {
+        if (failure != null) {
+            throw new UncheckedIOException("Output write failed", failure);
+        }
+        buffer.flip();
+        try {
+            queue.put(buffer);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new UncheckedIOException(new InterruptedIOException("Interrupted while passing output"));
+        }
+    }
+
+    /**
+     * Loop of writer thread. After failure it still takes buffers from the queue, so threads are not blocked
+     */
+    private void writeQueued() {
+        List<ByteBuffer> taken = new ArrayList<>(MAX_GATHER);
+        ByteBuffer[] batch = new ByteBuffer[MAX_GATHER];
+        boolean stop = false;
+        while (!stop) {
+            taken.clear();
+            try {
+                taken.add(queue.take());
+            } catch (InterruptedException e) {
+                failure = new InterruptedIOException("Output writer was interrupted");
+                return;
+            }
+            queue.drainTo(taken, MAX_GATHER - 1);
+            int n = 0;
+            long left = 0;
+            for (ByteBuffer buffer : taken) {
+                if (buffer == STOP) {
+                    stop = true;
+                } else {
+                    batch[n++] = buffer;
+                    left += buffer.remaining();
+                }
+            }
+            try {
+                while (failure == null && left > 0) {
+                    left -= channel.write(batch, 0, n);
+                }
+            } catch (IOException e) {
+                failure = e;
+            }
+            for (int i = 0; i < n; i++) {
+                recycle(batch[i]);
+                batch[i] = null;
+            }
+        }
+    }
+}
@@ -0,0 +1,289 @@
+package by.bsu.util.snapshot;
+
+import by.bsu.model.AbstractKMerDict;
+import by.bsu.model.InvertedIndex;
+import by.bsu.model.KMerDict;
+import by.bsu.model.KMerDictChunks;
+import by.bsu.model.PackedSequences;
+import by.bsu.model.PostingList;
+import by.bsu.model.Sample;
+import by.bsu.model.SampleSketch;
+import com.carrotsearch.hppc.LongObjectHashMap;
+import com.carrotsearch.hppc.LongObjectMap;
+import com.carrotsearch.hppc.cursors.LongObjectCursor;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+
+/**
+ * Built dictionary together with packed sequences of its sample, stored on disk so that the next run
+ * with the same input and parameters doesn't read FASTA and doesn't build dictionary again.
+ * <p>
+ * File starts with magic "SSJI", format version and the key that describes input and parameters
+ * (see {@link #key(String, int, String, File...)}). Snapshot with other version or key is ignored.
+ * Then packed sequences and dictionary arrays follow in little-endian order. They are read back by bulk copies
+ * from memory-mapped file, only hash maps of {@link KMerDictChunks} are filled from stored sorted keys.
+ * <p>
+ * Restored sample has only packed sequences, {@link Sample#sequences} has right length but no strings.
+ * Sets of hashes ({@link AbstractKMerDict#wholeSampleChunksHashesList},
+ * {@link AbstractKMerDict#allHashesSet}) are not stored, the sketch of chunks is.
+ */
+public class IndexSnapshot {
+
+    static final byte[] MAGIC = {'S', 'S', 'J', 'I'};
+    static final int VERSION = 5;
+    private static final byte EDIT_DICT = 0;
+    private static final byte CHUNKS_DICT = 1;
+
+    public Sample sample;
+    public AbstractKMerDict dict;
+    /**
+     * Key snapshot was loaded with
+     */
+    public String key;
+
+    public IndexSnapshot(Sample sample, AbstractKMerDict dict, String key) {
+        this.sample = sample;
+        this.dict = dict;
+        this.key = key;
+    }
+
+    /**
+     * Describes what snapshot was built from: input files with their sizes and modification times,
+     * kind of dictionary and chunks, l (or chunks count) and alphabet. Any change gives another key
+     *
+     * @param mode   kind of dictionary and chunks, for example "edit l-mers" or "hamming entropy chunks"
+     * @param inputs files or folders in the order their reads were added to index
+     */
+    public static String key(String mode, int l, String alphabet, File... inputs) throws IOException {
+        StringBuilder result = new StringBuilder();
+        result.append(mode).append(";l=").append(l).append(";alphabet=").append(alphabet);
+        for (int i = 0; i < inputs.length; i++) {
+            File input = inputs[i];
+            File[] files = input.isDirectory() ? input.listFiles() : new File[]{input};
+            if (files == null) {
+                throw new IOException("Can't list " + input);
+            }
+            Arrays.sort(files);
+            result.append(";input=").append(i);
+            for (File file : files) {
+                result.append(';').append(file.getCanonicalPath())
+                        .append(':').append(file.length())
+                        .append(':').append(file.lastModified());
+            }
+        }
+        return result.toString();
+    }
+
+    /**
+     * Returns snapshot from given file or null if there is no file or it was built with another key or format version
+     */
+    public static IndexSnapshot load(Path path, String key) throws IOException {
+        if (!Files.isRegularFile(path)) {
+            return null;
+        }
+        try (MappedInput in = new MappedInput(path)) {
+            if (in.remaining() < MAGIC.length + 4 || !Arrays.equals(in.readBytes(MAGIC.length), MAGIC)
+                    || in.readInt() != VERSION || !in.readString().equals(key)) {
+                return null;
+            }
+            Sample sample = readSample(in);
+            AbstractKMerDict dict = readDict(in);
+            return new IndexSnapshot(sample, dict, key);
+        }
+    }
+
+    /**
+     * Writes snapshot to temporary file and moves it to path, so broken file is never left at path.
+     * Sample should be packed
+     */
+    public static void save(Path path, String key, Sample sample, AbstractKMerDict dict) throws IOException {
+        if (sample.packed == null) {
+            throw new IllegalArgumentException("Snapshot stores packed sequences only");
+        }
+        if (path.toAbsolutePath().getParent() != null) {
+            Files.createDirectories(path.toAbsolutePath().getParent());
+        }
+        Path tmp = Paths.get(path.toString() + ".tmp");
+        try (SnapshotOutput out = new SnapshotOutput(tmp)) {
+            out.writeBytes(MAGIC);
+            out.writeInt(VERSION);
+            out.writeString(key);
+            writeSample(out, sample);
+            writeDict(out, dict);
+        }
+        Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private static void writeSample(SnapshotOutput out, Sample sample) throws IOException {
+        PackedSequences packed = sample.packed;
+        out.writeString(sample.name);
+        out.writeInt(packed.size);
+        out.writeInt(packed.maxLength);
+        out.writeInts(packed.lengths);
+        out.writeLongs(packed.words);
+        int masks = 0;
+        for (long[] mask : packed.masks) {
+            if (mask != null) {
+                masks++;
+            }
+        }
+        out.writeInt(masks);
+        for (int i = 0; i < packed.size; i++) {
+            if (packed.masks[i] != null) {
+                out.writeInt(i);
+                out.writeLongs(packed.masks[i]);
+            }
+        }
+        int others = 0;
+        for (int[] positions : packed.otherPositions) {
+            if (positions != null) {
+                others++;
+            }
+        }
+        out.writeInt(others);
+        for (int i = 0; i < packed.size; i++) {
+            if (packed.otherPositions[i] != null) {
+                out.writeInt(i);
+                out.writeInt(packed.otherPositions[i].length);
+                out.writeInts(packed.otherPositions[i]);
+                out.writeString(new String(packed.otherSymbols[i]));
+            }
+        }
+    }
+
+    private static Sample readSample(MappedInput in) throws IOException {
+        Sample sample = new Sample();
+        sample.name = in.readString();
+        int size = in.readInt();
+        int maxLength = in.readInt();
+        PackedSequences packed = new PackedSequences(0, maxLength);
+        packed.size = size;
+        packed.lengths = in.readInts(size);
+        packed.words = in.readLongs(Math.multiplyExact(size, packed.wordsPerSequence));
+        packed.masks = new long[size][];
+        int masks = in.readInt();
+        for (int m = 0; m < masks; m++) {
+            int i = in.readInt();
+            packed.masks[i] = in.readLongs(packed.wordsPerSequence);
+        }
+        packed.otherPositions = new int[size][];
+        packed.otherSymbols = new char[size][];
+        int others = in.readInt();
+        for (int o = 0; o < others; o++) {
+            int i = in.readInt();
+            packed.otherPositions[i] = in.readInts(in.readInt());
+            packed.otherSymbols[i] = in.readString().toCharArray();
+        }
+        sample.packed = packed;
+        sample.sequences = new String[size];
+        return sample;
+    }
+
+    private static void writeDict(SnapshotOutput out, AbstractKMerDict dict) throws IOException {
+        out.writeByte(dict instanceof KMerDict ? EDIT_DICT : CHUNKS_DICT);
+        out.writeString(dict.sampleName);
+        out.writeInt(dict.l);
+        out.writeInt(dict.chunksCount);
+        out.writeInt(dict.sequencesLength);
+        out.writeInt(dict.sequencesNumber);
+        for (long[] hashes : dict.sequenceChunksHashesList) {
+            out.writeLongs(hashes);
+        }
+        for (short[] order : dict.chunksOrder) {
+            out.writeInt(order.length);
+            out.writeShorts(order);
+        }
+        out.writeInt(dict.profile == null ? 0 : dict.profile.length);
+        if (dict.profile != null) {
+            for (double[] row : dict.profile) {
+                out.writeInt(row.length);
+                out.writeDoubles(row);
+            }
+        }
+        out.writeInt(dict.sketch.positions.length);
+        out.writeLongs(dict.sketch.positions);
+        if (dict instanceof KMerDict) {
+            InvertedIndex index = ((KMerDict) dict).hashToSequencesIndex;
+            out.writeInt(index.size());
+            out.writeLongs(index.hashes);
+            out.writeInts(index.offsets);
+            out.writeInt(index.postings.length);
+            out.writeInts(index.postings);
+        } else {
+            //each position as sorted keys with CSR postings, the same layout as InvertedIndex
+            for (LongObjectMap<PostingList> lists : ((KMerDictChunks) dict).chunksHashToSequences) {
+                long[] keys = new long[lists.size()];
+                int last = 0;
+                for (LongObjectCursor<PostingList> entry : lists) {
+                    keys[last++] = entry.key;
+                }
+                Arrays.sort(keys);
+                int[] offsets = new int[keys.length + 1];
+                for (int i = 0; i < keys.length; i++) {
+                    offsets[i + 1] = offsets[i] + lists.get(keys[i]).size();
+                }
+                out.writeInt(keys.length);
+                out.writeLongs(keys);
+                out.writeInts(offsets);
+                for (long key : keys) {
+                    out.writeInts(lists.get(key).toArray());
+                }
+            }
+        }
+    }
+
+    private static AbstractKMerDict readDict(MappedInput in) throws IOException {
+        byte type = in.readByte();
+        AbstractKMerDict dict = type == EDIT_DICT ? new KMerDict() : new KMerDictChunks();
+        dict.sampleName = in.readString();
+        dict.l = in.readInt();
+        dict.chunksCount = in.readInt();
+        dict.sequencesLength = in.readInt();
+        dict.sequencesNumber = in.readInt();
+        dict.sequenceChunksHashesList = new long[dict.sequencesNumber][];
+        for (int seq = 0; seq < dict.sequencesNumber; seq++) {
+            dict.sequenceChunksHashesList[seq] = in.readLongs(dict.chunksCount);
+        }
+        dict.chunksOrder = new short[dict.sequencesNumber][];
+        for (int seq = 0; seq < dict.sequencesNumber; seq++) {
+            dict.chunksOrder[seq] = in.readShorts(in.readInt());
+        }
+        int profileRows = in.readInt();
+        if (profileRows > 0) {
+            dict.profile = new double[profileRows][];
+            for (int i = 0; i < profileRows; i++) {
+                dict.profile[i] = in.readDoubles(in.readInt());
+            }
+        }
+        dict.sketch = new SampleSketch();
+        dict.sketch.positions = in.readLongs(in.readInt());
+        if (type == EDIT_DICT) {
+            int keys = in.readInt();
+            long[] hashes = in.readLongs(keys);
+            int[] offsets = in.readInts(keys + 1);
+            int[] postings = in.readInts(in.readInt());
+            ((KMerDict) dict).hashToSequencesIndex = new InvertedIndex(hashes, offsets, postings);
+        } else {
+            KMerDictChunks chunks = (KMerDictChunks) dict;
+            chunks.chunksHashToSequences = KMerDictChunks.newChunksHashToSequences(dict.chunksCount);
+            for (int i = 0; i < dict.chunksCount; i++) {
+                int keys = in.readInt();
+                long[] hashes = in.readLongs(keys);
+                int[] offsets = in.readInts(keys + 1);
+                int[] postings = in.readInts(offsets[keys]);
+                LongObjectMap<PostingList> lists = new LongObjectHashMap<>(keys);
+                for (int h = 0; h < keys; h++) {
+                    lists.put(hashes[h], PostingList.of(postings, offsets[h], offsets[h + 1], dict.sequencesNumber));
+                }
+                chunks.chunksHashToSequences[i] = lists;
+            }
+        }
+        return dict;
+    }
+}
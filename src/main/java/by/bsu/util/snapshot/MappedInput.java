@@ -0,0 +1,148 @@
+package by.bsu.util.snapshot;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reader of snapshot written by {@link SnapshotOutput}. File is memory-mapped by windows of up to 1 GB
+ * and arrays are bulk copied from the mapping, nothing is parsed
+ */
+class MappedInput implements Closeable {
+
+    private static final long WINDOW = 1L << 30;
+
+    private final FileChannel channel;
+    private final long size;
+    /**
+     * File position of the window start
+     */
+    private long windowStart;
+    private MappedByteBuffer window;
+
+    MappedInput(Path path) throws IOException {
+        channel = FileChannel.open(path, StandardOpenOption.READ);
+        size = channel.size();
+        map(0);
+    }
+
+    byte readByte() throws IOException {
+        ensure(1);
+        return window.get();
+    }
+
+    byte[] readBytes(int n) throws IOException {
+        ensure(n);
+        byte[] result = new byte[n];
+        window.get(result);
+        return result;
+    }
+
+    int readInt() throws IOException {
+        ensure(4);
+        return window.getInt();
+    }
+
+    String readString() throws IOException {
+        int length = readInt();
+        if (length < 0 || length > remaining()) {
+            throw new IOException("Broken snapshot string");
+        }
+        return new String(readBytes(length), StandardCharsets.UTF_8);
+    }
+
+    int[] readInts(int n) throws IOException {
+        checkArray(n, 4);
+        int[] result = new int[n];
+        for (int from = 0; from < n; ) {
+            int count = (int) Math.min(n - from, WINDOW / 4);
+            ensure(count * 4L);
+            window.asIntBuffer().get(result, from, count);
+            window.position(window.position() + count * 4);
+            from += count;
+        }
+        return result;
+    }
+
+    long[] readLongs(int n) throws IOException {
+        checkArray(n, 8);
+        long[] result = new long[n];
+        for (int from = 0; from < n; ) {
+            int count = (int) Math.min(n - from, WINDOW / 8);
+            ensure(count * 8L);
+            window.asLongBuffer().get(result, from, count);
+            window.position(window.position() + count * 8);
+            from += count;
+        }
+        return result;
+    }
+
+    short[] readShorts(int n) throws IOException {
+        checkArray(n, 2);
+        short[] result = new short[n];
+        for (int from = 0; from < n; ) {
+            int count = (int) Math.min(n - from, WINDOW / 2);
+            ensure(count * 2L);
+            window.asShortBuffer().get(result, from, count);
+            window.position(window.position() + count * 2);
+            from += count;
+        }
+        return result;
+    }
+
+    double[] readDoubles(int n) throws IOException {
+        checkArray(n, 8);
+        double[] result = new double[n];
+        for (int from = 0; from < n; ) {
+            int count = (int) Math.min(n - from, WINDOW / 8);
+            ensure(count * 8L);
+            window.asDoubleBuffer().get(result, from, count);
+            window.position(window.position() + count * 8);
+            from += count;
+        }
+        return result;
+    }
+
+    long remaining() {
+        return size - windowStart - window.position();
+    }
+
+    /**
+     * Array length is checked before allocation, so broken file doesn't allocate huge arrays
+     */
+    private void checkArray(int n, int bytes) throws IOException {
+        if (n < 0 || (long) n * bytes > remaining()) {
+            throw new IOException("Broken snapshot array of " + n + " values");
+        }
+    }
+
+    /**
+     * Moves window if it has less than n bytes from current position
+     */
+    private void ensure(long n) throws IOException {
+        if (window.remaining() >= n) {
+            return;
+        }
+        if (remaining() < n) {
+            throw new EOFException("Unexpected end of snapshot");
+        }
+        map(windowStart + window.position());
+    }
+
+    private void map(long position) throws IOException {
+        windowStart = position;
+        window = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(WINDOW, size - position));
+        window.order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
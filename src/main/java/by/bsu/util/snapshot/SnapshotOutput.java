@@ -0,0 +1,114 @@
+package by.bsu.util.snapshot;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Buffered little-endian writer of snapshot primitives, arrays are copied to the buffer by bulk puts
+ */
+class SnapshotOutput implements Closeable {
+
+    private static final int BUFFER_SIZE = 1 << 20;
+
+    private final FileChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+
+    SnapshotOutput(Path path) throws IOException {
+        channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+    }
+
+    void writeByte(byte value) throws IOException {
+        reserve(1);
+        buffer.put(value);
+    }
+
+    void writeBytes(byte[] values) throws IOException {
+        for (int from = 0; from < values.length; ) {
+            int count = Math.min(values.length - from, reserve(1));
+            buffer.put(values, from, count);
+            from += count;
+        }
+    }
+
+    void writeInt(int value) throws IOException {
+        reserve(4);
+        buffer.putInt(value);
+    }
+
+    void writeString(String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeInt(bytes.length);
+        writeBytes(bytes);
+    }
+
+    void writeInts(int[] values) throws IOException {
+        for (int from = 0; from < values.length; ) {
+            int count = Math.min(values.length - from, reserve(4) / 4);
+            buffer.asIntBuffer().put(values, from, count);
+            buffer.position(buffer.position() + count * 4);
+            from += count;
+        }
+    }
+
+    void writeLongs(long[] values) throws IOException {
+        for (int from = 0; from < values.length; ) {
+            int count = Math.min(values.length - from, reserve(8) / 8);
+            buffer.asLongBuffer().put(values, from, count);
+            buffer.position(buffer.position() + count * 8);
+            from += count;
+        }
+    }
+
+    void writeShorts(short[] values) throws IOException {
+        for (int from = 0; from < values.length; ) {
+            int count = Math.min(values.length - from, reserve(2) / 2);
+            buffer.asShortBuffer().put(values, from, count);
+            buffer.position(buffer.position() + count * 2);
+            from += count;
+        }
+    }
+
+    void writeDoubles(double[] values) throws IOException {
+        for (int from = 0; from < values.length; ) {
+            int count = Math.min(values.length - from, reserve(8) / 8);
+            buffer.asDoubleBuffer().put(values, from, count);
+            buffer.position(buffer.position() + count * 8);
+            from += count;
+        }
+    }
+
+    /**
+     * Makes sure that at least n bytes fit into buffer and returns the number of free bytes
+     */
+    private int reserve(int n) throws IOException {
+        if (buffer.remaining() < n) {
+            flush();
+        }
+        return buffer.remaining();
+    }
+
+    private void flush() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            flush();
+            channel.force(false);
+        } finally {
+            channel.close();
+        }
+    }
+}
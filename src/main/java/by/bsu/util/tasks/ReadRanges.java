@@ -0,0 +1,97 @@
+package by.bsu.util.tasks;
+
+import by.bsu.util.AlgorithmUtils;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntToLongFunction;
+
+/**
+ * Dynamic scheduler of reads for parallel tasks. Reads are split into small contiguous ranges of almost equal
+ * estimated work and each task takes the next free range when it finishes the previous one, so threads that got
+ * light ranges just take more of them.
+ * <p>
+ * In single sample run read seq is compared only with reads after it, so work estimation should take it into account
+ * (see {@link #triangle(long, int, int)}), otherwise first ranges are much heavier than the last ones.
+ */
+public class ReadRanges {
+
+    /**
+     * How many ranges each thread gets on average. More ranges give better balance, but cost more synchronization
+     */
+    private static final int RANGES_PER_THREAD = 32;
+
+    /**
+     * Range r is [bounds[r], bounds[r + 1])
+     */
+    private final int[] bounds;
+    private final AtomicInteger next = new AtomicInteger();
+
+    private ReadRanges(int[] bounds) {
+        this.bounds = bounds;
+    }
+
+    /**
+     * Splits reads [0, n) into ranges of almost equal total weight
+     *
+     * @param work estimated work for each read, it is calculated on given amount of threads
+     */
+    public static ReadRanges split(int n, int threads, IntToLongFunction work) {
+        long[] weights = new long[n];
+        int shards = Math.max(1, Math.min(threads, n));
+        AlgorithmUtils.runShards(threads, shards, shard -> {
+            int to = AlgorithmUtils.shardStart(shard + 1, shards, n);
+            for (int seq = AlgorithmUtils.shardStart(shard, shards, n); seq < to; seq++) {
+                //each read costs at least something
+                weights[seq] = 1 + Math.max(0, work.applyAsLong(seq));
+            }
+        });
+        long total = 0;
+        for (long weight : weights) {
+            total += weight;
+        }
+        long grain = Math.max(1, total / ((long) Math.max(1, threads) * RANGES_PER_THREAD));
+        int[] bounds = new int[n + 1];
+        int ranges = 0;
+        long accumulated = 0;
+        for (int seq = 0; seq < n; seq++) {
+            accumulated += weights[seq];
+            if (accumulated >= grain) {
+                bounds[++ranges] = seq + 1;
+                accumulated = 0;
+            }
+        }
+        if (bounds[ranges] != n) {
+            bounds[++ranges] = n;
+        }
+        int[] result = new int[ranges + 1];
+        System.arraycopy(bounds, 0, result, 0, ranges + 1);
+        return new ReadRanges(result);
+    }
+
+    /**
+     * Scales work of read seq to the part of reads it is compared with, for single sample runs
+     */
+    public static long triangle(long work, int seq, int n) {
+        return n == 0 ? 0 : work * (n - seq) / n;
+    }
+
+    /**
+     * Returns index of the next free range or -1 if all ranges are taken
+     */
+    public int next() {
+        int r = next.getAndIncrement();
+        return r < size() ? r : -1;
+    }
+
+    public int start(int r) {
+        return bounds[r];
+    }
+
+    public int end(int r) {
+        return bounds[r + 1];
+    }
+
+    public int size() {
+        return bounds.length - 1;
+    }
+}